@@ -4,8 +4,20 @@ import java.lang.instrument.Instrumentation;
 
 public class Instrumenter {
 
+	//-javaagent:top_runtime.jar=linked links every schedule site once instead of looking up the task method by name
+	public static final String LinkedModeArgument = "linked";
+	
+	private static Instrumentation Inst;
+	
+	//the instrumentation the agent was started with; null if we run without the agent. Benchmarks use it to measure object sizes
+	public static Instrumentation instrumentation() {
+		return Inst;
+	}
+	
 	public static void premain(String agentArgs, Instrumentation inst) {
-		inst.addTransformer(new ScheduleSiteRewriter());
+		Inst = inst;
+		boolean linkSites = agentArgs != null && agentArgs.trim().equals(LinkedModeArgument);
+		inst.addTransformer(new ScheduleSiteRewriter(linkSites));
 	}
 	
 }
\ No newline at end of file
@@ -5,28 +5,63 @@ import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.security.ProtectionDomain;
 
-import top.Task;
 import top.Runtime;
+import top.ScheduleSite;
+import top.Task;
+import top.TaskInvoker;
 
 import javassist.CannotCompileException;
 import javassist.ClassPool;
 import javassist.CtClass;
+import javassist.CtField;
 import javassist.CtMethod;
+import javassist.bytecode.AccessFlag;
 import javassist.expr.ExprEditor;
 import javassist.expr.MethodCall;
 
 public class ScheduleSiteRewriter implements ClassFileTransformer {
 	
+	//prefix of the static fields that hold linked schedule sites
+	public static final String SiteFieldPrefix = "__topSite$";
+	
 	final ClassPool classPool;
+	//in linked mode every schedule site gets its own static top.ScheduleSite field that is linked on first use;
+	//otherwise we pass the task name and let the runtime find the method
+	final boolean linkSites;
+	
 	public ScheduleSiteRewriter() {
+		this(false);
+	}
+	
+	public ScheduleSiteRewriter(boolean linkSites) {
 		classPool = ClassPool.getDefault();	
+		this.linkSites = linkSites;
 	}
 	
-	private void instrumentMethod(final CtMethod method) throws CannotCompileException {
+	//adds a new site field to cc and returns the statement that links the site on first use and schedules the task
+	private String linkedStatement(CtClass cc, int siteNumber, MethodCall m, String scheduleMethod) throws CannotCompileException {
+		String owner = cc.getName();
+		String field = SiteFieldPrefix + siteNumber;
+		CtField siteField = CtField.make("private static " + ScheduleSite.class.getName() + " " + field + ";", cc);
+		siteField.getFieldInfo().setAccessFlags(AccessFlag.PRIVATE | AccessFlag.STATIC | AccessFlag.SYNTHETIC);
+		cc.addField(siteField);
+		
+		return "{ " + ScheduleSite.class.getName() + " site = " + owner + "." + field + "; " +
+				"if(site == null) { " +
+					"site = " + Runtime.LinkSiteMethod + "(" + owner + ".class, \"" + m.getClassName() + "\", \"" + m.getMethodName() + "\", \"" + m.getSignature() + "\"); " +
+					owner + "." + field + " = site; " +
+				"} " +
+				scheduleMethod + "(site, $0, $args); }";
+	}
+	
+	private void instrumentMethod(final CtClass cc, final CtMethod method, final boolean link, final int[] siteCounter) throws CannotCompileException {
 		//there are GeneratedMethodAccessor2.invoke() methods out there (from the use of reflection in Task)
 		//that call xschedTask methods
 		//and if we rewrite them we get weird behavior...
-		if(method.getLongName().startsWith("sun.reflect."))
+		if(method.getLongName().startsWith("sun.reflect.") || method.getLongName().startsWith("jdk.internal.reflect."))
+			return;
+		//the same is true for our own generated invokers (see top.TaskInvoker)
+		if(TaskInvoker.isGeneratedInvokerClass(method.getDeclaringClass().getName()))
 			return;
 		
 		method.instrument(new ExprEditor() {
@@ -34,12 +69,16 @@ public class ScheduleSiteRewriter implements ClassFileTransformer {
 			@Override
 			public void edit(MethodCall m) throws CannotCompileException {
 				if(m.getMethodName().startsWith(Task.MainTaskMethodPrefix)) {
-					String statement = "{ " + Runtime.ScheduleMainTaskMethod + "($0, \"" + m.getMethodName() + "\", $args); }";							
+					String statement = link ?
+							linkedStatement(cc, siteCounter[0]++, m, Runtime.ScheduleMainTaskMethod) :
+							"{ " + Runtime.ScheduleMainTaskMethod + "($0, \"" + m.getMethodName() + "\", $args); }";							
 					if(Task.DEBUG)
 						System.out.println("found schedule site: " + m.getMethodName() + " in " + method.getLongName() + "; replacing it with " + statement);
 					m.replace(statement);
 				} else if (m.getMethodName().startsWith(Task.NormalTaskMethodPrefix)) {
-					String statement = "{ " + Runtime.ScheduleNormalTaskMethod + "($0, \"" + m.getMethodName() + "\", $args); }";
+					String statement = link ?
+							linkedStatement(cc, siteCounter[0]++, m, Runtime.ScheduleNormalTaskMethod) :
+							"{ " + Runtime.ScheduleNormalTaskMethod + "($0, \"" + m.getMethodName() + "\", $args); }";
 					if(Task.DEBUG)
 						System.out.println("found schedule site: " + m.getMethodName() + " in  " + method.getLongName() + "; replacing it with " + statement);
 					m.replace(statement);
@@ -56,6 +95,11 @@ public class ScheduleSiteRewriter implements ClassFileTransformer {
 			Class<?> classBeingRedefined, ProtectionDomain protectionDomain,
 			byte[] classfileBuffer) throws IllegalClassFormatException {
 		
+		//JFR redefines the event classes, ours in top.jfr and its own in jdk.jfr, when a recording starts. They have no schedule sites
+		//and the class pool holds a frozen copy of them since they were loaded, so javassist would refuse to make them again
+		if(classBeingRedefined != null && className != null && (className.startsWith("top/jfr/") || className.startsWith("jdk/jfr/")))
+			return null;
+		
 		//System.out.println("about to really instrument class " + className);
 		CtClass cc = null;
 		
@@ -67,11 +111,14 @@ public class ScheduleSiteRewriter implements ClassFileTransformer {
 			//cc = classPool.get(className);
 			//System.out.println("got class from class pool " + className);
 			//Thread.sleep(1000);			
+			//we cannot add site fields to interfaces or to classes that are being redefined
+			boolean link = linkSites && ! cc.isInterface() && classBeingRedefined == null;
+			int[] siteCounter = new int[] { 0 };
 			CtMethod[] methods = cc.getDeclaredMethods();
 			for (int k=0; k<methods.length; k++) {			
 				assert methods[k].getLongName().startsWith(javaClassName);
 				//System.out.println("instrumenting method " + methods[k]);
-				instrumentMethod(methods[k]);									
+				instrumentMethod(cc, methods[k], link, siteCounter);									
 			}
 			
 			// return the new bytecode array:
@@ -0,0 +1,110 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class AffinityTests {
+
+	static final int Keys = 4;
+	static final int Rounds = 50;
+
+	final AtomicInteger executed = new AtomicInteger();
+
+	public void topTask_work(Task now, Integer key) {
+		executed.incrementAndGet();
+	}
+
+	public void topTask_round(Task now, Integer round) {
+		Task next = new Task();
+		if(round < Rounds)
+			this.topTask_round(next, round + 1);
+		for(int key = 0; key < Keys; key++) {
+			Task t = new Task();
+			this.topTask_work(t, key);
+			t.setAffinity(key);
+			if(round < Rounds)
+				t.hb(next);
+		}
+	}
+
+	public void topMainTask_main(Task now) {
+		this.topTask_round(new Task(), 1);
+	}
+
+	@Test
+	public void testAffineTasksRun() {
+		Scheduler scheduler = new Scheduler(Keys).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			this.topMainTask_main(new Task());
+		} finally {
+			scheduler.close();
+		}
+		assertEquals(Keys * Rounds, executed.get());
+	}
+
+	final CountDownLatch released = new CountDownLatch(1);
+	volatile boolean waited;
+
+	//keeps its worker busy until the other task with the same affinity ran
+	public void topTask_long(Task now) {
+		try {
+			waited = released.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void topTask_release(Task now) {
+		released.countDown();
+	}
+
+	public void topMainTask_busyWorker(Task now) {
+		Task a = new Task();
+		this.topTask_long(a);
+		a.setAffinity(0);
+		Task b = new Task();
+		this.topTask_release(b);
+		b.setAffinity(0);
+	}
+
+	@Test
+	public void testIdleWorkerTakesAffineTask() {
+		Scheduler scheduler = new Scheduler(2).setAffinityDelay(0, TimeUnit.MILLISECONDS).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			this.topMainTask_busyWorker(new Task());
+		} finally {
+			scheduler.close();
+		}
+		assertTrue(waited);
+	}
+
+	@Test
+	public void testAffinityDelay() {
+		Scheduler scheduler = new Scheduler(1);
+		assertEquals(Scheduler.AFFINITY_DELAY_NANOS, scheduler.affinityDelayNanos());
+		scheduler.setAffinityDelay(5, TimeUnit.MILLISECONDS);
+		assertEquals(5000000L, scheduler.affinityDelayNanos());
+		try {
+			scheduler.setAffinityDelay(-1, TimeUnit.MILLISECONDS);
+			fail();
+		} catch(IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testSameWorkerAs() {
+		Task a = new Task();
+		Task b = new Task();
+		assertFalse(a.hasAffinity());
+		a.setAffinity(7);
+		b.setAffinity(a);
+		assertEquals(7, b.affinity());
+	}
+}
@@ -0,0 +1,104 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BarrierTests {
+
+	static final int Participants = 1000;
+	static final int FewParticipants = 3;
+
+	final AtomicInteger arrived = new AtomicInteger();
+	int arrivedBeforeAfter = -1;
+	boolean barrierInFuture;
+	boolean barrierRetired;
+	Task barrier;
+
+	public void topTask_participant(Task now) {
+		arrived.incrementAndGet();
+	}
+
+	//schedules a child that also arrives at the barrier; we happen before the barrier so we may add edges to it
+	public void topTask_spawner(Task now, Task barrier) {
+		Task child = new Task();
+		this.topTask_participant(child);
+		child.hb(barrier);
+	}
+
+	public void topTask_after(Task now) {
+		arrivedBeforeAfter = arrived.get();
+		barrierRetired = barrier.hasRetired();
+	}
+
+	public void topMainTask_main(Task now, Integer participants) {
+		Task after = new Task();
+		this.topTask_after(after);
+		barrier = new Task();
+		Barrier.schedule(barrier, participants);
+		barrier.hb(after);
+		for(int i = 0; i < participants; i++) {
+			Task p = new Task();
+			if(i % 2 == 0) {
+				this.topTask_participant(p);
+			} else {
+				this.topTask_spawner(p, barrier);
+			}
+			p.hb(barrier);
+			//start the participants right away so that they arrive while we still add edges
+			now.release(p);
+		}
+		barrierInFuture = barrier.isInFuture();
+	}
+
+	public void topMainTask_empty(Task now) {
+		Task after = new Task();
+		this.topTask_after(after);
+		barrier = new Task();
+		Barrier.schedule(barrier);
+		barrier.hb(after);
+	}
+
+	@Test
+	public void testBarrierWaitsForAllParticipants() {
+		Scheduler scheduler = new Scheduler(4).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			this.topMainTask_main(new Task(), Participants);
+		} finally {
+			scheduler.close();
+		}
+		assertTrue(barrierInFuture);
+		//half of the participants are spawners that arrive through their child
+		assertEquals(Participants, arrivedBeforeAfter);
+		assertTrue(barrierRetired);
+	}
+
+	//few participants are counted without a combining tree
+	@Test
+	public void testBarrierWithFewParticipants() {
+		Scheduler scheduler = new Scheduler(4).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			this.topMainTask_main(new Task(), FewParticipants);
+		} finally {
+			scheduler.close();
+		}
+		assertEquals(FewParticipants, arrivedBeforeAfter);
+		assertTrue(barrierRetired);
+	}
+
+	@Test
+	public void testBarrierWithoutParticipants() {
+		this.topMainTask_empty(new Task());
+		assertEquals(0, arrivedBeforeAfter);
+		assertEquals("topTask_barrier", barrier.taskName());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testParticipantsMustBePositive() {
+		Barrier.schedule(new Task(), 0);
+	}
+}
@@ -0,0 +1,104 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jsr166y.ForkJoinWorkerThread;
+
+import org.junit.Test;
+
+public class BlockingTaskTests {
+
+	final CountDownLatch signal = new CountDownLatch(1);
+	volatile boolean signalled;
+	volatile boolean blockedOnWorker = true;
+	volatile boolean nowWasSet;
+	volatile boolean afterRanAfterWaiter;
+
+	@Blocking
+	public void topTask_waiter(Task now) {
+		blockedOnWorker = Thread.currentThread() instanceof ForkJoinWorkerThread;
+		nowWasSet = Task.now() == now;
+		//with only one worker this would never return if we were blocking the worker
+		try {
+			signalled = signal.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+		}
+	}
+
+	public void topTask_signal(Task now) {
+		signal.countDown();
+	}
+
+	public void topTask_after(Task now) {
+		afterRanAfterWaiter = signalled;
+	}
+
+	public static class Poller {
+		volatile boolean onWorker = true;
+
+		@Blocking
+		public void topTask_poll(Task now) {
+			onWorker = Thread.currentThread() instanceof ForkJoinWorkerThread;
+		}
+	}
+
+	//overrides the blocking method without repeating the annotation
+	public static class QuickPoller extends Poller {
+		@Override
+		public void topTask_poll(Task now) {
+			onWorker = Thread.currentThread() instanceof ForkJoinWorkerThread;
+		}
+	}
+
+	public static interface Source {
+		@Blocking
+		public void topTask_read(Task now);
+	}
+
+	public static class FileSource implements Source {
+		@Override
+		public void topTask_read(Task now) {
+		}
+	}
+
+	public void topMainTask_override(Task now, Poller poller) {
+		poller.topTask_poll(new Task());
+	}
+
+	public void topMainTask_main(Task now) {
+		Task waiter = new Task();
+		this.topTask_waiter(waiter);
+		Task after = new Task();
+		this.topTask_after(after);
+		waiter.hb(after);
+		this.topTask_signal(new Task());
+	}
+
+	@Test
+	public void testBlockingTaskDoesNotPinWorker() {
+		Scheduler scheduler = new Scheduler(1).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			this.topMainTask_main(new Task());
+		} finally {
+			scheduler.close();
+		}
+		assertTrue(signalled);
+		assertFalse(blockedOnWorker);
+		assertTrue(nowWasSet);
+		assertTrue(afterRanAfterWaiter);
+	}
+
+	@Test
+	public void testOverridesOfBlockingMethodsBlock() throws Exception {
+		assertTrue(TaskInvoker.forMethod(QuickPoller.class.getMethod("topTask_poll", Task.class)).isBlocking());
+		assertTrue(TaskInvoker.forMethod(FileSource.class.getMethod("topTask_read", Task.class)).isBlocking());
+
+		QuickPoller poller = new QuickPoller();
+		this.topMainTask_override(new Task(), poller);
+		assertFalse(poller.onWorker);
+	}
+}
@@ -0,0 +1,44 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BulkReleaseTests {
+
+	static final int Forks = 3000;
+
+	final AtomicInteger executed = new AtomicInteger();
+	int executedBeforeJoin = -1;
+
+	public void topTask_fork(Task now) {
+		executed.incrementAndGet();
+	}
+
+	public void topTask_join(Task now) {
+		executedBeforeJoin = executed.get();
+	}
+
+	//the main task retires with Forks+1 successors, way above the bulk release threshold
+	public void topMainTask_main(Task now) {
+		Task join = new Task();
+		this.topTask_join(join);
+		for(int i = 0; i < Forks; i++) {
+			Task fork = new Task();
+			this.topTask_fork(fork);
+			fork.hb(join);
+		}
+	}
+
+	@Test
+	public void testBulkRelease() {
+		assertTrue(Forks > Task.BULK_RELEASE_THRESHOLD);
+		Task main = new Task();
+		this.topMainTask_main(main);
+		assertEquals(Forks, executed.get());
+		assertEquals(Forks, executedBeforeJoin);
+		assertEquals(Forks + 2, main.domain().tasksExecuted());
+	}
+}
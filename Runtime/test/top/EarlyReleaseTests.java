@@ -0,0 +1,87 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class EarlyReleaseTests {
+
+	final CountDownLatch childStarted = new CountDownLatch(1);
+	boolean childRanBeforeParentRetired;
+	boolean orderedAfterRelease;
+	boolean hbAfterReleaseFailed;
+	boolean doubleReleaseFailed;
+	int joined;
+
+	public void topTask_child(Task now) {
+		childStarted.countDown();
+	}
+
+	public void topTask_join(Task now) {
+		joined++;
+	}
+
+	public void topMainTask_main(Task now) {
+		Task child = new Task();
+		this.topTask_child(child);
+		now.release(child);
+		orderedAfterRelease = now.isOrderedBefore(child);
+		//with two workers the other one picks up child while we wait
+		try {
+			childRanBeforeParentRetired = childStarted.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public void topMainTask_checks(Task now) {
+		Task join = new Task();
+		this.topTask_join(join);
+		Task child = new Task();
+		this.topTask_child(child);
+		child.hb(join);
+		now.release(child);
+		try {
+			now.release(child);
+		} catch (RuntimeException e) {
+			doubleReleaseFailed = true;
+		}
+		Task other = new Task();
+		this.topTask_join(other);
+		try {
+			other.hb(child);
+		} catch (RuntimeException e) {
+			hbAfterReleaseFailed = true;
+		}
+	}
+
+	@Test
+	public void testChildRunsBeforeParentRetires() {
+		Scheduler scheduler = new Scheduler(2).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			this.topMainTask_main(new Task());
+		} finally {
+			scheduler.close();
+		}
+		assertTrue(childRanBeforeParentRetired);
+		assertFalse(orderedAfterRelease);
+	}
+
+	@Test
+	public void testWellFormedness() {
+		this.topMainTask_checks(new Task());
+		assertTrue(doubleReleaseFailed);
+		assertTrue(hbAfterReleaseFailed);
+		assertEquals(2, joined);
+	}
+
+	@Test(expected=RuntimeException.class)
+	public void testOnlyNowCanRelease() {
+		Task t = new Task();
+		new Task().release(t);
+	}
+}
@@ -0,0 +1,216 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class GraphTemplateTests {
+
+	static final int Width = 8;
+	static final int Steps = 50;
+
+	final AtomicInteger worked = new AtomicInteger();
+	GraphTemplate template;
+	int stepNode;
+	int joinNode;
+	int[] workNodes;
+	int steps;
+	boolean joinAfterWork = true;
+	boolean cycleDetected;
+	boolean frozenRejected;
+	boolean badArgsRejected;
+	final AtomicInteger counted = new AtomicInteger();
+	boolean wrongTypeRejected;
+	boolean nullPrimitiveRejected;
+	boolean untouchedAfterReject;
+	boolean rescheduleRejected;
+	boolean duplicateRejected;
+
+	public void topTask_work(Task now, Integer step) {
+		assertEquals(steps, step.intValue());
+		worked.incrementAndGet();
+	}
+
+	public void topTask_join(Task now, Integer step) {
+		if(worked.get() != (step.intValue() + 1) * Width)
+			joinAfterWork = false;
+	}
+
+	//one step: Width workers between two barriers, a join that checks them and the next step
+	public void topTask_step(Task now, Task later) {
+		steps++;
+		if(steps >= Steps)
+			return;
+		Integer step = Integer.valueOf(steps);
+		Task[] graph = template.newInstance();
+		Object[][] args = new Object[graph.length][];
+		args[stepNode] = new Object[] { later };
+		args[joinNode] = new Object[] { step };
+		for(int node : workNodes) {
+			args[node] = new Object[] { step };
+		}
+		template.schedule(graph, args);
+		graph[stepNode].hb(later);
+	}
+
+	public void topTask_end(Task now) {
+	}
+
+	public void topTask_count(Task now, int by, Integer alsoBy) {
+		counted.addAndGet(by + (alsoBy == null ? 0 : alsoBy.intValue()));
+	}
+
+	//rejected arguments must leave the instance alone so that it can still be scheduled
+	public void topMainTask_typeChecks(Task now) {
+		GraphTemplate pair = new GraphTemplate();
+		int a = pair.task(this, "topTask_count", int.class, Integer.class);
+		int b = pair.task(this, "topTask_count", int.class, Integer.class);
+		pair.hb(a, b);
+		Task[] instance = pair.newInstance();
+		try {
+			pair.schedule(instance, new Object[] { 1, 2 }, new Object[] { 3, "not an integer" });
+		} catch (RuntimeException e) {
+			wrongTypeRejected = true;
+		}
+		try {
+			pair.schedule(instance, new Object[] { 1, 2 }, new Object[] { null, 4 });
+		} catch (RuntimeException e) {
+			nullPrimitiveRejected = true;
+		}
+		untouchedAfterReject = instance[a].isInInit() && instance[b].isInInit();
+		pair.schedule(instance, new Object[] { 1, 2 }, new Object[] { 3, null });
+	}
+
+	//the template can be scheduled again but an instance can't
+	public void topMainTask_reschedule(Task now) {
+		GraphTemplate pair = new GraphTemplate();
+		int a = pair.task(this, "topTask_count", int.class, Integer.class);
+		int b = pair.task(this, "topTask_count", int.class, Integer.class);
+		pair.hb(a, b);
+		Task[] instance = pair.newInstance();
+		pair.schedule(instance, new Object[] { 1, null }, new Object[] { 1, null });
+		//the first task is fresh, so a late check would bind it before it fails on the second
+		Task[] mixed = new Task[] { new Task(), instance[b] };
+		try {
+			pair.schedule(mixed, new Object[] { 10, null }, new Object[] { 10, null });
+		} catch (RuntimeException e) {
+			rescheduleRejected = mixed[0].isInInit();
+		}
+		pair.schedule(pair.newInstance(), new Object[] { 2, null }, new Object[] { 2, null });
+
+		//both slots are fresh, but binding the second would fail after the first is bound
+		Task twice = new Task();
+		try {
+			pair.schedule(new Task[] { twice, twice }, new Object[] { 10, null }, new Object[] { 10, null });
+		} catch (RuntimeException e) {
+			duplicateRejected = twice.isInInit();
+		}
+	}
+
+	public void topMainTask_steps(Task now) {
+		template = new GraphTemplate();
+		stepNode = template.task(this, "topTask_step", Task.class);
+		joinNode = template.task(this, "topTask_join", Integer.class);
+		int start = template.barrier(1);
+		int done = template.barrier(Width);
+		workNodes = new int[Width];
+		for(int i = 0; i < Width; i++) {
+			workNodes[i] = template.task(this, "topTask_work", Integer.class);
+			template.hb(start, workNodes[i]);
+			template.hb(workNodes[i], done);
+		}
+		template.hb(done, joinNode);
+		template.hb(joinNode, stepNode);
+
+		steps = -1;
+		Task end = new Task();
+		this.topTask_end(end);
+		Task first = new Task();
+		this.topTask_step(first, end);
+		first.hb(end);
+	}
+
+	public void topMainTask_checks(Task now) {
+		GraphTemplate cyclic = new GraphTemplate();
+		int a = cyclic.task(this, "topTask_end");
+		int b = cyclic.task(this, "topTask_end");
+		cyclic.hb(a, b);
+		cyclic.hb(b, a);
+		try {
+			cyclic.schedule(cyclic.newInstance());
+		} catch (RuntimeException e) {
+			cycleDetected = true;
+		}
+
+		GraphTemplate single = new GraphTemplate();
+		single.task(this, "topTask_work", Integer.class);
+		try {
+			single.schedule(single.newInstance(), new Object[] { "not an integer", "too many" });
+		} catch (RuntimeException e) {
+			badArgsRejected = true;
+		}
+		try {
+			single.task(this, "topTask_end");
+		} catch (RuntimeException e) {
+			frozenRejected = true;
+		}
+	}
+
+	@Test
+	public void testInstancesRunInOrder() {
+		Scheduler scheduler = new Scheduler(4).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			this.topMainTask_steps(new Task());
+		} finally {
+			scheduler.close();
+		}
+		assertEquals(Steps, steps);
+		assertEquals(Steps * Width, worked.get());
+		assertTrue(joinAfterWork);
+	}
+
+	@Test
+	public void testChecks() {
+		this.topMainTask_checks(new Task());
+		assertTrue(cycleDetected);
+		assertTrue(badArgsRejected);
+		assertTrue(frozenRejected);
+	}
+
+	@Test(timeout=10000)
+	public void testArgumentTypesCheckedBeforeScheduling() {
+		Scheduler scheduler = new Scheduler(2).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			this.topMainTask_typeChecks(new Task());
+		} finally {
+			scheduler.close();
+		}
+		assertTrue(wrongTypeRejected);
+		assertTrue(nullPrimitiveRejected);
+		assertTrue(untouchedAfterReject);
+		assertEquals(6, counted.get());
+	}
+
+	@Test(timeout=10000)
+	public void testInstanceScheduledOnce() {
+		Scheduler scheduler = new Scheduler(2).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			this.topMainTask_reschedule(new Task());
+		} finally {
+			scheduler.close();
+		}
+		assertTrue(rescheduleRejected);
+		assertTrue(duplicateRejected);
+		assertEquals(6, counted.get());
+	}
+
+	@Test(expected=RuntimeException.class)
+	public void testUnknownMethod() {
+		new GraphTemplate().task(this, "topTask_work", String.class);
+	}
+}
@@ -0,0 +1,107 @@
+package top;
+
+import static org.junit.Assert.*;
+import static top.Permissions.perm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+import top.instrumentation.ScheduleSiteRewriter;
+import top.jfr.TopEvents;
+
+public class JfrTests {
+
+	static final int Children = 10;
+
+	public void topTask_child(Task now) {
+	}
+
+	public void topTask_join(Task now) {
+	}
+
+	public void topMainTask_main(Task now) {
+		Object data = perm.newObject(new Object());
+		Task join = new Task();
+		this.topTask_join(join);
+		perm.replaceNowWithTask(data, join);
+		for(int i = 0; i < Children; i++) {
+			Task t = new Task();
+			this.topTask_child(t);
+			t.hb(join);
+		}
+	}
+
+	//starting a recording redefines the event classes; the agent must leave them alone without complaining
+	@Test
+	public void testRedefinedEventClassesSkipped() throws Exception {
+		InputStream in = TopEvents.class.getResourceAsStream("TopEvents.class");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for(int n; (n = in.read(buffer)) > 0; ) {
+			bytes.write(buffer, 0, n);
+		}
+		in.close();
+
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		PrintStream oldErr = System.err;
+		System.setErr(new PrintStream(err, true));
+		byte[] transformed;
+		try {
+			transformed = new ScheduleSiteRewriter().transform(TopEvents.class.getClassLoader(), "top/jfr/TopEvents", TopEvents.class, null, bytes.toByteArray());
+		} finally {
+			System.setErr(oldErr);
+		}
+		assertNull(transformed);
+		assertEquals("", err.toString());
+	}
+
+	@Test
+	public void testEventsInRecording() throws Exception {
+		assertTrue(TopEvents.install());
+		File file = File.createTempFile("top", ".jfr");
+		Recording recording = new Recording();
+		recording.enable("top.TaskExecuted");
+		recording.enable("top.HbEdge");
+		recording.enable("top.PermissionTransfer");
+		recording.start();
+		try {
+			assertTrue(TopEvents.RECORDING);
+			this.topMainTask_main(new Task());
+		} finally {
+			recording.stop();
+		}
+		assertFalse(TopEvents.RECORDING);
+		recording.dump(file.toPath());
+		recording.close();
+
+		int executed = 0;
+		int edges = 0;
+		int transfers = 0;
+		for(RecordedEvent e : RecordingFile.readAllEvents(file.toPath())) {
+			String name = e.getEventType().getName();
+			if(name.equals("top.TaskExecuted")) {
+				executed++;
+				assertTrue(e.getString("method").startsWith(JfrTests.class.getName() + ".top"));
+				if(e.getString("method").endsWith("topMainTask_main"))
+					assertEquals(Children + 1, e.getInt("retained"));
+			} else if(name.equals("top.HbEdge")) {
+				edges++;
+			} else if(name.equals("top.PermissionTransfer")) {
+				transfers++;
+				assertEquals("replaceNowWithTask", e.getString("operation"));
+			}
+		}
+		file.delete();
+		assertEquals(Children + 2, executed);
+		assertEquals(Children, edges);
+		assertEquals(1, transfers);
+	}
+}
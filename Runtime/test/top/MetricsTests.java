@@ -0,0 +1,92 @@
+package top;
+
+import static org.junit.Assert.*;
+import static top.Permissions.perm;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MetricsTests {
+
+	static final int Children = 10;
+
+	public void topTask_child(Task now, Object o) {
+		perm.checkRead(o);
+	}
+
+	public void topTask_join(Task now) {
+	}
+
+	public void topMainTask_main(Task now) {
+		Object shared = perm.newObject(new Object());
+		perm.makeShared(shared);
+		Task join = new Task();
+		this.topTask_join(join);
+		for(int i = 0; i < Children; i++) {
+			Task t = new Task();
+			this.topTask_child(t, shared);
+			t.hb(join);
+		}
+	}
+
+	public void topMainTask_barrier(Task now) {
+		Task barrier = new Task();
+		Barrier.schedule(barrier, Children);
+		for(int i = 0; i < Children; i++) {
+			Task t = new Task();
+			this.topTask_join(t);
+			t.hb(barrier);
+		}
+	}
+
+	@Test
+	public void testBarrierCountsOneRelease() throws Exception {
+		TopRuntime.register();
+		TopRuntimeMXBean metrics = TopRuntime.get();
+		metrics.reset();
+		try {
+			this.topMainTask_barrier(new Task());
+		} finally {
+			metrics.setEnabled(false);
+		}
+		//main releases the children; the barrier counts once, when the last of main and the children departs
+		long releases = 0;
+		for(long count : metrics.getRetainCountsAtRelease().values()) {
+			releases += count;
+		}
+		assertEquals(Children + 1, releases);
+		assertEquals(Children + 1, (long)metrics.getRetainCountsAtRelease().get("1"));
+	}
+
+	@Test
+	public void testCounters() throws Exception {
+		TopRuntime.register();
+		TopRuntimeMXBean metrics = TopRuntime.get();
+		metrics.reset();
+		try {
+			this.topMainTask_main(new Task());
+		} finally {
+			metrics.setEnabled(false);
+		}
+		int tasks = Children + 2;
+		assertEquals(tasks, metrics.getTasksScheduled());
+		assertEquals(tasks, metrics.getTasksStarted());
+		assertEquals(tasks, metrics.getTasksRetired());
+		assertEquals(0, metrics.getRetainedTasks());
+		assertEquals(Children, metrics.getHbEdges());
+		//join is released by main and by every child
+		long releases = 0;
+		for(long count : metrics.getRetainCountsAtRelease().values()) {
+			releases += count;
+		}
+		assertEquals(Children + Children + 1, releases);
+		assertEquals(Children + 1, (long)metrics.getRetainCountsAtRelease().get("1"));
+		assertEquals(Children, (long)metrics.getPermissionChecks().get("Shared"));
+
+		Object scheduled = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(TopRuntime.Name), "TasksScheduled");
+		assertEquals((long)tasks, scheduled);
+	}
+}
@@ -0,0 +1,253 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class PendingBudgetTests {
+
+	static final int Children = 100;
+	static final int Fanout = 4;
+	static final int Depth = 6;
+	static final int Parents = 20;
+
+	final AtomicInteger ran = new AtomicInteger();
+	Task other;
+
+	public void topTask_child(Task now) {
+		ran.incrementAndGet();
+	}
+
+	//a search tree like TSP: every node spawns its children and nothing else waits for them
+	public void topTask_node(Task now, int depth) {
+		ran.incrementAndGet();
+		if(depth == Depth)
+			return;
+		for(int i = 0; i < Fanout; i++) {
+			Task t = new Task();
+			this.topTask_node(t, depth + 1);
+		}
+	}
+
+	public void topMainTask_main(Task now) {
+		Task t = new Task();
+		this.topTask_node(t, 0);
+	}
+
+	//like TSP: every child gets a priority and is released as soon as it's set up
+	public void topTask_prioritized(Task now, int depth) {
+		ran.incrementAndGet();
+		if(depth == Depth)
+			return;
+		for(int i = 0; i < Fanout; i++) {
+			Task t = new Task();
+			this.topTask_prioritized(t, depth + 1);
+			t.setPriority(depth * Fanout + i);
+			now.release(t);
+		}
+	}
+
+	public void topMainTask_prioritized(Task now) {
+		Task t = new Task();
+		this.topTask_prioritized(t, 0);
+	}
+
+	public void topMainTask_withEdges(Task now) {
+		other = new Task();
+		this.topTask_child(other);
+		for(int i = 0; i < Children; i++) {
+			Task t = new Task();
+			this.topTask_child(t);
+			other.hb(t);
+		}
+	}
+
+	@Test
+	public void testLazyAboveBudget() {
+		Scheduler scheduler = new Scheduler(2).setPendingBudget(10).start();
+		Scheduler.setDefault(scheduler);
+		ScheduleDomain domain;
+		try {
+			Task main = new Task();
+			this.topMainTask_main(main);
+			domain = main.domain();
+		} finally {
+			scheduler.close();
+		}
+		//1 + 4 + ... + 4^6
+		int nodes = (int)((Math.pow(Fanout, Depth + 1) - 1) / (Fanout - 1));
+		assertEquals(nodes, ran.get());
+		assertEquals(nodes + 1, domain.tasksExecuted());
+		assertTrue(domain.tasksRunLazily() > 0);
+		assertEquals(0, scheduler.pendingTasks());
+	}
+
+	@Test
+	public void testLazyWithPrioritiesAndEarlyRelease() {
+		Scheduler scheduler = new Scheduler(2).setPendingBudget(10).usePriorities(true).start();
+		Scheduler.setDefault(scheduler);
+		ScheduleDomain domain;
+		try {
+			Task main = new Task();
+			this.topMainTask_prioritized(main);
+			domain = main.domain();
+		} finally {
+			scheduler.close();
+		}
+		int nodes = (int)((Math.pow(Fanout, Depth + 1) - 1) / (Fanout - 1));
+		assertEquals(nodes, ran.get());
+		assertEquals(nodes + 1, domain.tasksExecuted());
+		assertTrue(domain.tasksRunLazily() > 0);
+		assertEquals(0, scheduler.pendingTasks());
+	}
+
+	@Test
+	public void testNotLazyWithOtherPredecessors() {
+		Scheduler scheduler = new Scheduler(2).setPendingBudget(10).start();
+		Scheduler.setDefault(scheduler);
+		ScheduleDomain domain;
+		try {
+			Task main = new Task();
+			this.topMainTask_withEdges(main);
+			domain = main.domain();
+		} finally {
+			scheduler.close();
+		}
+		assertEquals(Children + 1, ran.get());
+		assertEquals(0, domain.tasksRunLazily());
+	}
+
+	//every parent has more successors than Task.BULK_RELEASE_THRESHOLD, so they are released in bulk
+	public void topTask_parent(Task now) {
+		for(int i = 0; i < Task.BULK_RELEASE_THRESHOLD + 44; i++) {
+			this.topTask_child(new Task());
+		}
+	}
+
+	public void topMainTask_wide(Task now) {
+		for(int i = 0; i < Parents; i++) {
+			this.topTask_parent(new Task());
+		}
+	}
+
+	@Test
+	public void testLazyInBulkRelease() {
+		Scheduler scheduler = new Scheduler(2).setPendingBudget(10).start();
+		Scheduler.setDefault(scheduler);
+		ScheduleDomain domain;
+		try {
+			Task main = new Task();
+			this.topMainTask_wide(main);
+			domain = main.domain();
+		} finally {
+			scheduler.close();
+		}
+		assertEquals(Parents * (Task.BULK_RELEASE_THRESHOLD + 44), ran.get());
+		assertTrue(domain.tasksRunLazily() > 0);
+		assertEquals(0, scheduler.pendingTasks());
+	}
+
+	//the last periodic check of the budget sees about 48 pending tasks; only the check at the end of the graph clears the flag
+	public void topMainTask_many(Task now) {
+		for(int i = 0; i < 120; i++) {
+			this.topTask_child(new Task());
+		}
+	}
+
+	public void topMainTask_few(Task now) {
+		for(int i = 0; i < Fanout; i++) {
+			this.topTask_child(new Task());
+		}
+	}
+
+	@Test
+	public void testBudgetRefreshedWhenGraphIsDone() {
+		Scheduler scheduler = new Scheduler(2).setPendingBudget(10).start();
+		Scheduler.setDefault(scheduler);
+		ScheduleDomain domain;
+		try {
+			this.topMainTask_many(new Task());
+			//far below the budget; none of these must run lazily because of the graph before
+			Task main = new Task();
+			this.topMainTask_few(main);
+			domain = main.domain();
+		} finally {
+			scheduler.close();
+		}
+		assertFalse(scheduler.isOverBudget());
+		assertEquals(0, domain.tasksRunLazily());
+	}
+
+	public void topTask_failing(Task now, int i) {
+		ran.incrementAndGet();
+		if(i == 199)
+			throw new IllegalStateException("child " + i);
+	}
+
+	//over the budget the children run lazily on the worker of main, the last one first
+	public void topMainTask_failing(Task now) {
+		for(int i = 0; i < 200; i++) {
+			this.topTask_failing(new Task(), i);
+		}
+	}
+
+	@Test(timeout=10000)
+	public void testLazyFailureDoesNotHang() {
+		Scheduler scheduler = new Scheduler(2).setPendingBudget(1).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			try {
+				this.topMainTask_failing(new Task());
+				fail("main task should rethrow the failure");
+			} catch (RuntimeException e) {
+				assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+			//the other children were ready already, so they still run
+			assertEquals(200, ran.get());
+			assertEquals(0, scheduler.pendingTasks());
+		} finally {
+			scheduler.close();
+		}
+	}
+
+	//the children wait for a task that fails, so they never run
+	public void topMainTask_dropped(Task now) {
+		Task failing = new Task();
+		this.topTask_failing(failing, 199);
+		for(int i = 0; i < Children; i++) {
+			Task t = new Task();
+			this.topTask_child(t);
+			failing.hb(t);
+		}
+	}
+
+	@Test
+	public void testDroppedTasksLeaveBudget() {
+		Scheduler scheduler = new Scheduler(2).setPendingBudget(10).start();
+		Scheduler.setDefault(scheduler);
+		ScheduleDomain domain;
+		try {
+			try {
+				this.topMainTask_dropped(new Task());
+				fail("main task should rethrow the failure");
+			} catch (RuntimeException e) {
+				assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+			assertEquals(0, scheduler.pendingTasks());
+			assertFalse(scheduler.isOverBudget());
+			Task main = new Task();
+			this.topMainTask_few(main);
+			domain = main.domain();
+		} finally {
+			scheduler.close();
+		}
+		assertEquals(0, domain.tasksRunLazily());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testBudgetMustBePositive() {
+		new Scheduler(1).setPendingBudget(0);
+	}
+}
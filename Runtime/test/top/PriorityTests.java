@@ -0,0 +1,53 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PriorityTests {
+
+	static final int Tasks = 100;
+
+	final List<Long> order = Collections.synchronizedList(new ArrayList<Long>());
+
+	public void topTask_work(Task now) {
+		order.add(now.priority());
+	}
+
+	public void topMainTask_main(Task now) {
+		Random random = new Random(42);
+		for(int i = 0; i < Tasks; i++) {
+			Task t = new Task();
+			this.topTask_work(t);
+			t.setPriority(random.nextInt(1000));
+		}
+	}
+
+	@Test
+	public void testHigherPriorityFirst() {
+		Scheduler scheduler = new Scheduler(1).usePriorities(true).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			this.topMainTask_main(new Task());
+		} finally {
+			scheduler.close();
+		}
+		assertEquals(Tasks, order.size());
+		//with one worker all tasks are ready when the first one runs
+		for(int i = 1; i < order.size(); i++) {
+			assertTrue("task " + i + " ran out of order: " + order, order.get(i - 1) >= order.get(i));
+		}
+	}
+
+	@Test(expected=RuntimeException.class)
+	public void testNoPriorityForRetiredTask() {
+		Task t = new Task();
+		this.topMainTask_main(t);
+		t.setPriority(1);
+	}
+}
@@ -0,0 +1,175 @@
+package top;
+
+import static org.junit.Assert.*;
+import static top.Permissions.perm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class RangeTests {
+
+	static final int Size = 10000;
+
+	final int[] squares = new int[Size];
+	final AtomicInteger chunks = new AtomicInteger();
+	boolean allDoneBeforeJoin;
+	boolean ranAsRangeTask = true;
+	boolean otherTaskDenied;
+	int emptyRuns;
+	final AtomicLong covered = new AtomicLong();
+	volatile boolean badChunk;
+
+	public void topTask_join(Task now) {
+		allDoneBeforeJoin = true;
+		for(int i = 0; i < Size; i++) {
+			if(squares[i] != i * i)
+				allDoneBeforeJoin = false;
+		}
+	}
+
+	public void topMainTask_squares(Task now) {
+		Task join = new Task();
+		this.topTask_join(join);
+		final Task range = new Task();
+		Range.schedule(range, 0, Size, 100, new Range.Body() {
+			@Override
+			public void run(int from, int to) {
+				assertTrue(to - from <= 100);
+				chunks.incrementAndGet();
+				if(Task.now() != range)
+					ranAsRangeTask = false;
+				for(int i = from; i < to; i++) {
+					squares[i] = i * i;
+				}
+			}
+		});
+		range.hb(join);
+	}
+
+	public void topTask_other(Task now, Object data) {
+		try {
+			perm.checkRead(data);
+		} catch (RuntimeException e) {
+			otherTaskDenied = true;
+		}
+	}
+
+	public void topMainTask_permissions(Task now) {
+		final Object data = perm.newObject(new Object());
+		Task range = new Task();
+		Range.schedule(range, 0, 1000, 10, new Range.Body() {
+			@Override
+			public void run(int from, int to) {
+				//every chunk has the rights of the range task
+				perm.checkWrite(data);
+			}
+		});
+		Task other = new Task();
+		this.topTask_other(other, data);
+		perm.replaceNowWithTask(data, range);
+	}
+
+	public void topMainTask_bounds(Task now, final int from, final int to, final int grain) {
+		Range.schedule(new Task(), from, to, grain, new Range.Body() {
+			@Override
+			public void run(int lo, int hi) {
+				if(lo >= hi || lo < from || hi > to || (long)hi - lo > grain)
+					badChunk = true;
+				covered.addAndGet((long)hi - lo);
+			}
+		});
+	}
+
+	public void topMainTask_empty(Task now) {
+		Range.schedule(new Task(), 5, 5, new Range.Body() {
+			@Override
+			public void run(int from, int to) {
+				if(to > from)
+					emptyRuns++;
+			}
+		});
+	}
+
+	public void topMainTask_failing(Task now) {
+		Range.schedule(new Task(), 0, 1000, 1, new Range.Body() {
+			@Override
+			public void run(int from, int to) {
+				if(from == 500)
+					throw new IllegalStateException("index 500");
+			}
+		});
+	}
+
+	public void topMainTask_badGrain(Task now) {
+		Range.schedule(new Task(), 0, 10, 0, new Range.Body() {
+			@Override
+			public void run(int from, int to) {
+			}
+		});
+	}
+
+	@Test
+	public void testRangeRunsAllIndicesBeforeSuccessor() {
+		Scheduler scheduler = new Scheduler(4).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			this.topMainTask_squares(new Task());
+		} finally {
+			scheduler.close();
+		}
+		assertTrue(allDoneBeforeJoin);
+		assertTrue(ranAsRangeTask);
+		assertTrue(chunks.get() >= Size / 100);
+	}
+
+	@Test
+	public void testChunksShareThePermissionsOfTheRange() {
+		this.topMainTask_permissions(new Task());
+		assertTrue(otherTaskDenied);
+	}
+
+	@Test
+	public void testNegativeBounds() {
+		this.topMainTask_bounds(new Task(), -100, -10, 10);
+		assertFalse(badChunk);
+		assertEquals(90, covered.get());
+	}
+
+	@Test
+	public void testBoundsNearMaxValue() {
+		this.topMainTask_bounds(new Task(), Integer.MAX_VALUE - 1000, Integer.MAX_VALUE, 100);
+		assertFalse(badChunk);
+		assertEquals(1000, covered.get());
+	}
+
+	//more than Integer.MAX_VALUE indices; to - from overflows an int
+	@Test
+	public void testWholeIntRange() {
+		this.topMainTask_bounds(new Task(), Integer.MIN_VALUE, Integer.MAX_VALUE, 1 << 28);
+		assertFalse(badChunk);
+		assertEquals((long)Integer.MAX_VALUE - Integer.MIN_VALUE, covered.get());
+	}
+
+	@Test
+	public void testEmptyRange() {
+		this.topMainTask_empty(new Task());
+		assertEquals(0, emptyRuns);
+	}
+
+	@Test
+	public void testFailingChunkFailsMainTask() {
+		try {
+			this.topMainTask_failing(new Task());
+			fail("the range task should have failed");
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException || e.getCause().getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test(expected=RuntimeException.class)
+	public void testGrainMustBePositive() {
+		this.topMainTask_badGrain(new Task());
+	}
+}
@@ -0,0 +1,99 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ReachabilityTests {
+
+	static final int Layers = 40;
+	static final int Width = 4;
+	static final int Forks = 50000;
+
+	Task first;
+	Task last;
+	Task[] layer;
+	boolean firstBeforeLast;
+	boolean lastBeforeFirst;
+	boolean middleBeforeFirst;
+	boolean cycleDetected;
+	boolean joinAfterNow;
+	boolean childAfterNow;
+	boolean releasedAfterNow;
+
+	public void topTask_node(Task now) {
+	}
+
+	//builds a chain of diamonds back to front: barrier_i -> Width tasks -> barrier_i+1
+	//a search without a visited set needs Width^Layers steps for each negative query
+	public void topMainTask_diamonds(Task now) {
+		Task next = new Task();
+		this.topTask_node(next);
+		last = next;
+		for(int i = 0; i < Layers; i++) {
+			Task barrier = new Task();
+			this.topTask_node(barrier);
+			layer = new Task[Width];
+			for(int j = 0; j < Width; j++) {
+				Task t = new Task();
+				this.topTask_node(t);
+				t.hb(next);
+				barrier.hb(t);
+				layer[j] = t;
+			}
+			next = barrier;
+		}
+		first = next;
+
+		firstBeforeLast = first.isOrderedBefore(last);
+		lastBeforeFirst = last.isOrderedBefore(first);
+		middleBeforeFirst = layer[0].isOrderedBefore(first);
+		try {
+			last.hb(first);
+		} catch (RuntimeException e) {
+			cycleDetected = true;
+		}
+	}
+
+	//the join is scheduled first, so it's at the bottom of now's successor stack; every fork.hb(join) checks now->join
+	public void topMainTask_fanIn(Task now) {
+		Task join = new Task();
+		this.topTask_node(join);
+		for(int i = 0; i < Forks; i++) {
+			Task fork = new Task();
+			this.topTask_node(fork);
+			fork.hb(join);
+		}
+		joinAfterNow = now.isOrderedBefore(join);
+	}
+
+	public void topMainTask_release(Task now) {
+		Task child = new Task();
+		this.topTask_node(child);
+		childAfterNow = now.isOrderedBefore(child);
+		now.release(child);
+		releasedAfterNow = now.isOrderedBefore(child);
+	}
+
+	@Test(timeout=5000)
+	public void testWideFanIn() {
+		this.topMainTask_fanIn(new Task());
+		assertTrue(joinAfterNow);
+	}
+
+	@Test
+	public void testReleasedChildNotOrdered() {
+		this.topMainTask_release(new Task());
+		assertTrue(childAfterNow);
+		assertFalse(releasedAfterNow);
+	}
+
+	@Test
+	public void testDeepDiamonds() {
+		this.topMainTask_diamonds(new Task());
+		assertTrue(firstBeforeLast);
+		assertFalse(lastBeforeFirst);
+		assertFalse(middleBeforeFirst);
+		assertTrue(cycleDetected);
+	}
+}
@@ -0,0 +1,77 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ScheduleDomainTests {
+
+	final AtomicInteger executed = new AtomicInteger();
+
+	public void topTask_work(Task now, Integer remaining) {
+		executed.incrementAndGet();
+		if(remaining > 0) {
+			Task next = new Task();
+			this.topTask_work(next, remaining - 1);
+		}
+	}
+
+	public void topMainTask_main(Task now, Integer width, Integer depth) {
+		for(int i = 0; i < width; i++) {
+			this.topTask_work(new Task(), depth);
+		}
+	}
+
+	@Test
+	public void testStatistics() {
+		Task main = new Task();
+		this.topMainTask_main(main, 10, 4);
+		ScheduleDomain domain = main.domain();
+		assertTrue(domain.isDone());
+		assertNull(domain.failure());
+		//main task + 10 chains of 5 tasks
+		assertEquals(51, domain.tasksScheduled());
+		assertEquals(51, domain.tasksExecuted());
+		assertSame(main, domain.mainTask());
+	}
+
+	@Test
+	public void testConcurrentMainTasks() throws Exception {
+		final Scheduler scheduler = new Scheduler(4).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			final int numRoots = 8;
+			final Task[] mains = new Task[numRoots];
+			final ScheduleDomainTests[] instances = new ScheduleDomainTests[numRoots];
+			Thread[] threads = new Thread[numRoots];
+			for(int i = 0; i < numRoots; i++) {
+				final int root = i;
+				mains[i] = new Task();
+				instances[i] = new ScheduleDomainTests();
+				threads[i] = new Thread() {
+					@Override
+					public void run() {
+						instances[root].topMainTask_main(mains[root], 20 + root, 50);
+					}
+				};
+			}
+			for(Thread t : threads)
+				t.start();
+			for(Thread t : threads)
+				t.join();
+
+			for(int i = 0; i < numRoots; i++) {
+				ScheduleDomain domain = mains[i].domain();
+				long expected = 1 + (20 + i) * 51;
+				assertTrue(domain.isDone());
+				assertEquals(expected, domain.tasksExecuted());
+				assertEquals(expected - 1, instances[i].executed.get());
+				assertSame(scheduler, domain.scheduler());
+			}
+		} finally {
+			scheduler.close();
+		}
+	}
+}
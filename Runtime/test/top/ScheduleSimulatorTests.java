@@ -0,0 +1,153 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import top.trace.ScheduleSimulator;
+import top.trace.TaskGraph;
+import top.trace.TraceFile;
+import top.trace.TraceRecorder;
+
+public class ScheduleSimulatorTests {
+
+	static final int Tasks = 8;
+	static final long Millis = 5;
+	static final long Nanos = Millis * 1000000L;
+
+	public void topTask_work(Task now) {
+		sleep();
+	}
+
+	private static void sleep() {
+		try {
+			Thread.sleep(Millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public void topMainTask_independent(Task now) {
+		for(int i = 0; i < Tasks; i++) {
+			Task t = new Task();
+			this.topTask_work(t);
+		}
+	}
+
+	public void topMainTask_chain(Task now) {
+		Task prev = null;
+		for(int i = 0; i < Tasks; i++) {
+			Task t = new Task();
+			this.topTask_work(t);
+			if(prev != null)
+				prev.hb(t);
+			prev = t;
+		}
+	}
+
+	//the child is released before main sleeps, so they can overlap
+	public void topMainTask_early(Task now) {
+		Task t = new Task();
+		this.topTask_work(t);
+		now.release(t);
+		sleep();
+	}
+
+	public void topTask_quick(Task now) {
+	}
+
+	//main releases t early but quick still retains it, so main's release doesn't make t ready
+	public void topMainTask_earlyNotLast(Task now) {
+		Task quick = new Task();
+		this.topTask_quick(quick);
+		Task t = new Task();
+		this.topTask_work(t);
+		quick.hb(t);
+		now.release(t);
+		sleep();
+	}
+
+	private TaskGraph record(String which) throws IOException {
+		TraceRecorder.start();
+		try {
+			if(which.equals("independent")) {
+				this.topMainTask_independent(new Task());
+			} else if(which.equals("chain")) {
+				this.topMainTask_chain(new Task());
+			} else if(which.equals("earlyNotLast")) {
+				this.topMainTask_earlyNotLast(new Task());
+			} else {
+				this.topMainTask_early(new Task());
+			}
+		} finally {
+			TraceRecorder.stop();
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TraceRecorder.dump(bytes);
+		return TaskGraph.of(TraceFile.read(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+	@Test
+	public void testIndependentTasksScale() throws IOException {
+		TaskGraph graph = this.record("independent");
+		assertEquals(Tasks + 1, graph.size());
+		//tasks are numbered in the order they started
+		assertTrue(graph.method(0).endsWith("topMainTask_independent"));
+		ScheduleSimulator simulator = new ScheduleSimulator(graph);
+		for(ScheduleSimulator.Policy policy : ScheduleSimulator.policies()) {
+			assertEquals(policy.name(), graph.workNanos(), simulator.simulate(1, policy));
+			long parallel = simulator.simulate(Tasks, policy);
+			assertEquals(policy.name(), graph.spanNanos(), parallel);
+			//the main task runs alone first and may take a while (linking, generating invokers); after it all workers run at once
+			assertTrue(policy.name(), parallel < graph.duration(0) + 2 * Nanos);
+		}
+	}
+
+	@Test
+	public void testChainDoesNotScale() throws IOException {
+		TaskGraph graph = this.record("chain");
+		ScheduleSimulator simulator = new ScheduleSimulator(graph);
+		for(ScheduleSimulator.Policy policy : ScheduleSimulator.policies()) {
+			assertEquals(policy.name(), graph.workNanos(), simulator.simulate(Tasks, policy));
+		}
+		assertEquals(graph.workNanos(), graph.spanNanos());
+	}
+
+	@Test
+	public void testEarlyReleaseOverlaps() throws IOException {
+		TaskGraph graph = this.record("early");
+		assertEquals(2, graph.size());
+		ScheduleSimulator simulator = new ScheduleSimulator(graph);
+		long makespan = simulator.simulate(2, new ScheduleSimulator.Fifo());
+		assertTrue(makespan < graph.workNanos());
+		assertEquals(graph.spanNanos(), makespan);
+	}
+
+	@Test
+	public void testEarlyReleaseOfTaskWithOtherPredecessors() throws IOException {
+		TaskGraph graph = this.record("earlyNotLast");
+		assertEquals(3, graph.size());
+		assertTrue(graph.method(0).endsWith("topMainTask_earlyNotLast"));
+		int work = graph.method(1).endsWith("topTask_work") ? 1 : 2;
+		boolean early = false;
+		int[] succs = graph.successors(0);
+		for(int e = 0; e < succs.length; e++) {
+			if(succs[e] == work) {
+				early = ! graph.releasesAtEnd(0, e);
+				assertTrue(graph.releaseOffset(0, e) < graph.duration(0));
+			}
+		}
+		assertTrue(early);
+	}
+
+	@Test
+	public void testOverhead() throws IOException {
+		TaskGraph graph = this.record("chain");
+		long makespan = new ScheduleSimulator(graph).setOverheadNanos(1000).simulate(1, new ScheduleSimulator.Fifo());
+		assertEquals(graph.workNanos() + graph.size() * 1000L, makespan);
+	}
+}
@@ -0,0 +1,56 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ScheduleSiteTests {
+
+	public static class Receiver {
+		public void topTask_run(Task now, int i, String[] names) {
+		}
+		public void topTask_run(Task now, Object o) {
+		}
+		public void topMainTask_main(Task now) {
+		}
+	}
+
+	public static class BlockingReceiver extends Receiver {
+		@Blocking
+		@Override
+		public void topTask_run(Task now, Object o) {
+		}
+	}
+
+	@Test
+	public void testLinkByDescriptor() {
+		ScheduleSite site = Runtime.linkSite(ScheduleSiteTests.class, Receiver.class.getName(), "topTask_run", "(Ltop/Task;I[Ljava/lang/String;)V");
+		assertEquals(Integer.TYPE, site.invoker().method().getParameterTypes()[1]);
+		assertFalse(site.isMainTask());
+
+		site = Runtime.linkSite(ScheduleSiteTests.class, Receiver.class.getName(), "topTask_run", "(Ltop/Task;Ljava/lang/Object;)V");
+		assertEquals(Object.class, site.invoker().method().getParameterTypes()[1]);
+	}
+
+	@Test
+	public void testSubclassReceiverUsesOverride() {
+		ScheduleSite site = Runtime.linkSite(ScheduleSiteTests.class, Receiver.class.getName(), "topTask_run", "(Ltop/Task;Ljava/lang/Object;)V");
+		assertFalse(site.invokerFor(new Receiver()).isBlocking());
+		TaskInvoker invoker = site.invokerFor(new BlockingReceiver());
+		assertTrue(invoker.isBlocking());
+		assertEquals(BlockingReceiver.class, invoker.method().getDeclaringClass());
+		assertSame(invoker, site.invokerFor(new BlockingReceiver()));
+		assertSame(site.invoker(), site.invokerFor(new Receiver()));
+	}
+
+	@Test
+	public void testLinkMainTask() {
+		ScheduleSite site = Runtime.linkSite(ScheduleSiteTests.class, Receiver.class.getName(), "topMainTask_main", "(Ltop/Task;)V");
+		assertTrue(site.isMainTask());
+	}
+
+	@Test(expected=RuntimeException.class)
+	public void testLinkUnknownMethod() {
+		Runtime.linkSite(ScheduleSiteTests.class, Receiver.class.getName(), "topTask_run", "(Ltop/Task;J)V");
+	}
+}
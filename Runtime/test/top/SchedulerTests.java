@@ -0,0 +1,119 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class SchedulerTests {
+
+	final Set<Thread> workers = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Thread, Boolean>()));
+	volatile int executed;
+	final CountDownLatch mainStarted = new CountDownLatch(1);
+	volatile boolean heldBackRan;
+
+	public void topTask_work(Task now) {
+		workers.add(Thread.currentThread());
+		synchronized(this) {
+			executed++;
+		}
+	}
+
+	public void topTask_fail(Task now) {
+		throw new IllegalStateException("expected failure");
+	}
+
+	public void topMainTask_main(Task now, Integer numTasks) {
+		for(int i = 0; i < numTasks; i++) {
+			this.topTask_work(new Task());
+		}
+	}
+
+	public void topTask_heldBack(Task now) {
+		heldBackRan = true;
+	}
+
+	//the only other task of the graph waits for the timer
+	public void topMainTask_held(Task now) {
+		Task t = new Task();
+		this.topTask_heldBack(t);
+		t.notBefore(200);
+		mainStarted.countDown();
+	}
+
+	void runHeld() {
+		this.topMainTask_held(new Task());
+	}
+
+	public void topMainTask_failing(Task now) {
+		Task after = new Task();
+		this.topTask_work(after);
+		Task failing = new Task();
+		this.topTask_fail(failing);
+		failing.hb(after);
+	}
+
+	@Test
+	public void testMainTasksShareWorkers() {
+		Scheduler scheduler = new Scheduler(2).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			this.topMainTask_main(new Task(), 100);
+			assertEquals(100, executed);
+			this.topMainTask_main(new Task(), 100);
+			assertEquals(200, executed);
+			//both main tasks ran on the same two workers
+			assertTrue("main tasks used new threads: " + workers, workers.size() <= 2);
+			assertTrue(scheduler.isRunning());
+		} finally {
+			scheduler.close();
+		}
+		assertFalse(scheduler.isRunning());
+		assertNull(Scheduler.getDefault());
+	}
+
+	@Test(timeout=10000)
+	public void testCloseWaitsForRunningMainTasks() throws InterruptedException {
+		Scheduler scheduler = new Scheduler(2).start();
+		Scheduler.setDefault(scheduler);
+		Thread runner = new Thread() {
+			@Override
+			public void run() {
+				runHeld();
+			}
+		};
+		runner.setDaemon(true);
+		runner.start();
+		mainStarted.await();
+		scheduler.close();
+		assertTrue(heldBackRan);
+		runner.join(5000);
+		assertFalse(runner.isAlive());
+		assertFalse(scheduler.isRunning());
+	}
+
+	@Test
+	public void testFailureDoesNotKillScheduler() {
+		Scheduler scheduler = new Scheduler(2).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			try {
+				this.topMainTask_failing(new Task());
+				fail("main task should rethrow the failure");
+			} catch (RuntimeException e) {
+				assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+			//the successor of the failed task never runs
+			assertEquals(0, executed);
+
+			this.topMainTask_main(new Task(), 10);
+			assertEquals(10, executed);
+		} finally {
+			scheduler.close();
+		}
+	}
+}
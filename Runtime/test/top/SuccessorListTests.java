@@ -0,0 +1,50 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SuccessorListTests {
+
+	static final int Adders = 8;
+	static final int EdgesPerAdder = 200;
+
+	Task gate;
+	final AtomicInteger executed = new AtomicInteger();
+	final AtomicInteger executedBeforeGate = new AtomicInteger();
+
+	public void topTask_gate(Task now) {
+	}
+
+	public void topTask_child(Task now) {
+		if(! gate.hasRetired())
+			executedBeforeGate.incrementAndGet();
+		executed.incrementAndGet();
+	}
+
+	//all adders push edges onto the gate's successor list at the same time while the gate may be retiring
+	public void topTask_adder(Task now) {
+		for(int i = 0; i < EdgesPerAdder; i++) {
+			Task child = new Task();
+			this.topTask_child(child);
+			gate.hb(child);
+		}
+	}
+
+	public void topMainTask_main(Task now) {
+		gate = new Task();
+		this.topTask_gate(gate);
+		for(int i = 0; i < Adders; i++) {
+			this.topTask_adder(new Task());
+		}
+	}
+
+	@Test
+	public void testConcurrentEdgesToRetiringTask() {
+		this.topMainTask_main(new Task());
+		assertEquals(Adders * EdgesPerAdder, executed.get());
+		assertEquals(0, executedBeforeGate.get());
+	}
+}
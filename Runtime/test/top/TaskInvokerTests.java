@@ -0,0 +1,125 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+public class TaskInvokerTests {
+
+	public static class Receiver {
+		int calls;
+
+		public void topTask_count(Task now, Integer by) {
+			calls += by.intValue();
+		}
+
+		public void topTask_primitives(Task now, int i, long l, double d, String[] names) {
+			calls += i + (int)l + (int)d + names.length;
+		}
+
+		public static void topTask_static(Task now, Receiver r, char c) {
+			r.calls += c;
+		}
+	}
+
+	static final String Unloadable = "top.UnloadableReceiver";
+
+	//defines its own copy of UnloadableReceiver, everything else comes from the parent
+	static class OwnLoader extends ClassLoader {
+		OwnLoader() {
+			super(TaskInvokerTests.class.getClassLoader());
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if(! name.equals(Unloadable))
+				return super.loadClass(name, resolve);
+			synchronized(this) {
+				Class<?> c = this.findLoadedClass(name);
+				if(c != null)
+					return c;
+				try {
+					InputStream in = this.getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					byte[] buf = new byte[4096];
+					for(int n; (n = in.read(buf)) > 0; ) {
+						bytes.write(buf, 0, n);
+					}
+					in.close();
+					return this.defineClass(name, bytes.toByteArray(), 0, bytes.size());
+				} catch (IOException e) {
+					throw new ClassNotFoundException(name, e);
+				}
+			}
+		}
+	}
+
+	static class Hidden {
+		public void topTask_hidden(Task now) {
+		}
+	}
+
+	@Test
+	public void testPublicMethodGetsGeneratedInvoker() throws Exception {
+		TaskInvoker invoker = TaskInvoker.generate(Receiver.class.getMethod("topTask_count", Task.class, Integer.class));
+		assertTrue(invoker.toString(), invoker.isGenerated());
+
+		Receiver r = new Receiver();
+		invoker.invoke(r, new Object[] { new Task(), 3 });
+		assertEquals(3, r.calls);
+	}
+
+	@Test
+	public void testGeneratedInvokerUnboxesArguments() throws Exception {
+		Receiver r = new Receiver();
+		TaskInvoker invoker = TaskInvoker.generate(Receiver.class.getMethod("topTask_primitives", Task.class, int.class, long.class, double.class, String[].class));
+		assertTrue(invoker.toString(), invoker.isGenerated());
+		invoker.invoke(r, new Object[] { new Task(), 1, 2L, 3.0, new String[4] });
+		assertEquals(10, r.calls);
+
+		invoker = TaskInvoker.generate(Receiver.class.getMethod("topTask_static", Task.class, Receiver.class, char.class));
+		assertTrue(invoker.toString(), invoker.isGenerated());
+		invoker.invoke(null, new Object[] { new Task(), r, 'a' });
+		assertEquals(10 + 'a', r.calls);
+	}
+
+	@Test
+	public void testForMethodUsesGeneratedInvokers() throws Exception {
+		TaskInvoker invoker = TaskInvoker.forMethod(Receiver.class.getMethod("topTask_count", Task.class, Integer.class));
+		assertTrue(invoker.toString(), invoker.isGenerated());
+	}
+
+	private static WeakReference<ClassLoader> useTaskMethodOfOwnLoader() throws Exception {
+		OwnLoader loader = new OwnLoader();
+		Class<?> c = loader.loadClass(Unloadable);
+		assertSame(loader, c.getClassLoader());
+		Method m = c.getMethod("topTask_unload", Task.class, Integer.class);
+		TaskInvoker invoker = TaskInvoker.forMethod(m);
+		assertTrue(invoker.isGenerated());
+		assertSame(invoker, TaskInvoker.forMethod(m));
+		invoker.invoke(c.getDeclaredConstructor().newInstance(), new Object[] { new Task(), 1 });
+		return new WeakReference<ClassLoader>(loader);
+	}
+
+	@Test
+	public void testCachesDontKeepLoadersAlive() throws Exception {
+		WeakReference<ClassLoader> loader = useTaskMethodOfOwnLoader();
+		for(int i = 0; i < 50 && loader.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(loader.get());
+	}
+
+	@Test
+	public void testNonPublicClassFallsBackToReflection() throws Exception {
+		TaskInvoker invoker = TaskInvoker.generate(Hidden.class.getMethod("topTask_hidden", Task.class));
+		assertFalse(invoker.isGenerated());
+	}
+}
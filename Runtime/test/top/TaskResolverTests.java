@@ -0,0 +1,60 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TaskResolverTests {
+
+	public static class Receiver {
+		public void topTask_object(Task now, Object o) {
+		}
+		public void topTask_primitive(Task now, int i, boolean b) {
+		}
+		public void topTask_string(Task now, String s) {
+		}
+		public void topTask_overloaded(Task now, Integer i) {
+		}
+		public void topTask_overloaded(Task now, String s) {
+		}
+	}
+
+	@Test
+	public void testCachesResolution() {
+		Receiver r = new Receiver();
+		Task t = new Task();
+		TaskInvoker first = TaskResolver.resolve(r, "topTask_object", new Object[] { t, "a" });
+		TaskInvoker second = TaskResolver.resolve(r, "topTask_object", new Object[] { t, "b" });
+		assertSame(first, second);
+		assertEquals("topTask_object", first.taskName());
+	}
+
+	@Test
+	public void testNullArguments() {
+		Receiver r = new Receiver();
+		Task t = new Task();
+		assertEquals("topTask_string", TaskResolver.resolve(r, "topTask_string", new Object[] { t, null }).taskName());
+		assertEquals("topTask_object", TaskResolver.resolve(r, "topTask_object", new Object[] { t, null }).taskName());
+	}
+
+	@Test(expected=RuntimeException.class)
+	public void testNullDoesNotMatchPrimitive() {
+		TaskResolver.resolve(new Receiver(), "topTask_primitive", new Object[] { new Task(), null, Boolean.TRUE });
+	}
+
+	@Test
+	public void testBoxedArguments() {
+		Receiver r = new Receiver();
+		TaskInvoker invoker = TaskResolver.resolve(r, "topTask_primitive", new Object[] { new Task(), 42, Boolean.TRUE });
+		assertEquals(Integer.TYPE, invoker.method().getParameterTypes()[1]);
+	}
+
+	@Test
+	public void testOverloads() {
+		Receiver r = new Receiver();
+		Task t = new Task();
+		assertEquals(Integer.class, TaskResolver.resolve(r, "topTask_overloaded", new Object[] { t, 1 }).method().getParameterTypes()[1]);
+		assertEquals(String.class, TaskResolver.resolve(r, "topTask_overloaded", new Object[] { t, "s" }).method().getParameterTypes()[1]);
+		assertEquals(Integer.class, TaskResolver.resolve(r, "topTask_overloaded", new Object[] { t, 2 }).method().getParameterTypes()[1]);
+	}
+}
@@ -0,0 +1,55 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TimedTaskTests {
+
+	static final int Tasks = 2000;
+
+	final AtomicInteger executed = new AtomicInteger();
+	final AtomicInteger early = new AtomicInteger();
+	volatile boolean lastExecuted;
+
+	public void topTask_delayed(Task now, Long deadline) {
+		if(System.nanoTime() < deadline.longValue())
+			early.incrementAndGet();
+		executed.incrementAndGet();
+	}
+
+	public void topTask_last(Task now) {
+		lastExecuted = true;
+	}
+
+	public void topMainTask_main(Task now) {
+		for(int i = 0; i < Tasks; i++) {
+			long delay = i % 50;
+			Task t = new Task();
+			this.topTask_delayed(t, System.nanoTime() + delay * 1000000L);
+			t.notBefore(delay);
+		}
+		//nothing else is pending while this waits; the domain must still wait for it
+		Task last = new Task();
+		this.topTask_last(last);
+		last.notBefore(200);
+	}
+
+	@Test
+	public void testDelayedTasks() {
+		Scheduler scheduler = new Scheduler(1).start();
+		Scheduler.setDefault(scheduler);
+		try {
+			long start = System.nanoTime();
+			this.topMainTask_main(new Task());
+			assertTrue(System.nanoTime() - start >= 200 * 1000000L);
+		} finally {
+			scheduler.close();
+		}
+		assertEquals(Tasks, executed.get());
+		assertEquals(0, early.get());
+		assertTrue(lastExecuted);
+	}
+}
@@ -0,0 +1,132 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import top.trace.ChromeTrace;
+import top.trace.TraceFile;
+import top.trace.TraceRecorder;
+
+public class TraceTests {
+
+	static final int Children = 10;
+
+	public void topTask_child(Task now) {
+	}
+
+	public void topTask_join(Task now) {
+	}
+
+	public void topMainTask_main(Task now) {
+		Task join = new Task();
+		this.topTask_join(join);
+		for(int i = 0; i < Children; i++) {
+			Task t = new Task();
+			this.topTask_child(t);
+			t.hb(join);
+		}
+	}
+
+	@Test
+	public void testRecordDumpAndRead() throws IOException {
+		TraceRecorder.start();
+		try {
+			this.topMainTask_main(new Task());
+		} finally {
+			TraceRecorder.stop();
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TraceRecorder.dump(bytes);
+		TraceFile trace = TraceFile.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+		int[] counts = new int[TraceRecorder.RELEASE + 1];
+		for(TraceFile.ThreadTrace thread : trace.threads()) {
+			long last = 0;
+			for(TraceFile.Event e : thread.events) {
+				counts[e.type]++;
+				assertTrue(e.nanos >= last);
+				last = e.nanos;
+				if(e.type == TraceRecorder.START)
+					assertTrue(trace.methodName(e.method).startsWith(TraceTests.class.getName() + ".top"));
+			}
+		}
+		int tasks = Children + 2;
+		assertEquals(tasks, counts[TraceRecorder.SCHEDULE]);
+		assertEquals(tasks, counts[TraceRecorder.READY]);
+		assertEquals(tasks, counts[TraceRecorder.START]);
+		assertEquals(tasks, counts[TraceRecorder.RETIRE]);
+		assertEquals(Children, counts[TraceRecorder.HB]);
+		assertEquals(0, counts[TraceRecorder.RELEASE]);
+
+		StringWriter json = new StringWriter();
+		ChromeTrace.write(trace, json);
+		assertTrue(json.toString().contains("\"ph\":\"B\""));
+		assertTrue(json.toString().trim().endsWith("]}"));
+	}
+
+	@Blocking
+	public void topTask_blocking(Task now) {
+	}
+
+	public void topMainTask_blocking(Task now) {
+		for(int i = 0; i < BlockingTasks; i++) {
+			this.topTask_blocking(new Task());
+		}
+	}
+
+	static final int BlockingTasks = 50;
+
+	@Test
+	public void testOtherThreadsShareBuffers() throws IOException {
+		Scheduler scheduler = new Scheduler(2).start();
+		Scheduler.setDefault(scheduler);
+		TraceRecorder.start();
+		try {
+			this.topMainTask_blocking(new Task());
+		} finally {
+			TraceRecorder.stop();
+			scheduler.close();
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TraceRecorder.dump(bytes);
+		TraceFile trace = TraceFile.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+		//the blocking tasks may each run on a thread of their own but they don't get a buffer each
+		assertTrue(trace.threads().size() <= scheduler.parallelism() + TraceRecorder.SHARED_BUFFERS);
+		int started = 0;
+		for(TraceFile.ThreadTrace thread : trace.threads()) {
+			long last = 0;
+			for(TraceFile.Event e : thread.events) {
+				assertTrue(e.nanos >= last);
+				last = e.nanos;
+				if(e.type == TraceRecorder.START) {
+					started++;
+					if(trace.methodName(e.method).endsWith("topTask_blocking"))
+						assertTrue(thread.worker < 0);
+				}
+			}
+		}
+		assertEquals(BlockingTasks + 1, started);
+
+		StringWriter json = new StringWriter();
+		ChromeTrace.write(trace, json);
+		assertTrue(json.toString().contains("\"ph\":\"b\""));
+	}
+
+	@Test
+	public void testNothingRecordedWhenStopped() throws IOException {
+		TraceRecorder.start();
+		TraceRecorder.stop();
+		this.topMainTask_main(new Task());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TraceRecorder.dump(bytes);
+		TraceFile trace = TraceFile.read(new ByteArrayInputStream(bytes.toByteArray()));
+		assertTrue(trace.threads().isEmpty());
+	}
+}
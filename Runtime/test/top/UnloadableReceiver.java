@@ -0,0 +1,7 @@
+package top;
+
+//only loaded by name, in a class loader of its own; see TaskInvokerTests
+public class UnloadableReceiver {
+	public void topTask_unload(Task now, Integer i) {
+	}
+}
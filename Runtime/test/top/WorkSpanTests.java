@@ -0,0 +1,79 @@
+package top;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class WorkSpanTests {
+
+	static final int Chain = 5;
+	static final int Independent = 5;
+	static final long Millis = 5;
+
+	public void topTask_chain(Task now) {
+		sleep();
+	}
+
+	public void topTask_independent(Task now) {
+		sleep();
+	}
+
+	private static void sleep() {
+		try {
+			Thread.sleep(Millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public void topMainTask_main(Task now) {
+		Task prev = null;
+		for(int i = 0; i < Chain; i++) {
+			Task t = new Task();
+			this.topTask_chain(t);
+			if(prev != null)
+				prev.hb(t);
+			prev = t;
+		}
+		for(int i = 0; i < Independent; i++) {
+			Task t = new Task();
+			this.topTask_independent(t);
+		}
+	}
+
+	@Test
+	public void testChainIsCriticalPath() {
+		boolean old = Task.WORK_SPAN;
+		Task.WORK_SPAN = true;
+		Task main = new Task();
+		try {
+			this.topMainTask_main(main);
+		} finally {
+			Task.WORK_SPAN = old;
+		}
+		WorkSpan workSpan = main.domain().workSpan();
+		assertNotNull(workSpan);
+		long millis = 1000000L;
+		assertTrue(workSpan.workNanos() >= (Chain + Independent) * Millis * millis);
+		assertTrue(workSpan.spanNanos() >= Chain * Millis * millis);
+		assertTrue(workSpan.spanNanos() < workSpan.workNanos());
+		assertTrue(workSpan.parallelism() > 1);
+
+		List<String> path = workSpan.criticalPath();
+		assertEquals(Chain + 1, path.size());
+		assertTrue(path.get(0).endsWith("topMainTask_main"));
+		for(int i = 1; i < path.size(); i++) {
+			assertTrue(path.get(i).endsWith("topTask_chain"));
+		}
+		assertEquals(2, workSpan.criticalPathByMethod().size());
+	}
+
+	@Test
+	public void testOffByDefault() {
+		Task main = new Task();
+		this.topMainTask_main(main);
+		assertNull(main.domain().workSpan());
+	}
+}
@@ -72,28 +72,22 @@ public class Lift {
 	// Body of the thread. If the elevator is idle, it checks for calls
 	// every tenth of a second. If it is moving, it takes 1 second to
 	// move between floors.
+	// Instead of sleeping we let the timer hold the next step back.
 	public void topTask_nextRound(Task now) {		
 		Task nextRoundTask = new Task();
 		this.topTask_nextRound(nextRoundTask);
 		if (travelDir == IDLE) {
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {
-			}
 			Task idleTask = new Task();
 			this.topTask_doIdle(idleTask, nextRoundTask);
+			idleTask.notBefore(100);
 			perm.replaceNowWithTask(this, idleTask);
 			perm.replaceNowWithTask(controls.floors, idleTask);
 			
 			idleTask.hb(nextRoundTask);
 		} else {
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-			}
-			
 			Task movingTask = new Task();
 			this.topTask_doMoving(movingTask, nextRoundTask);
+			movingTask.notBefore(1000);
 			perm.replaceNowWithTask(this, movingTask);
 			perm.replaceNowWithTask(controls.floors, movingTask);
 			
@@ -8,6 +8,7 @@ package hedc.top.hedc;
  */
 
 
+import top.Blocking;
 import top.Task;
 import hedc.ethz.util.*;
 
@@ -24,6 +25,7 @@ public abstract class HedcTask implements Cloneable {
         
     public abstract void cancel();
     
+    @Blocking
     public void topTask_run(Task now) {
     	System.out.println("task running");
 	try {
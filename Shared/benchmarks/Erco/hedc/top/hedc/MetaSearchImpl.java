@@ -11,6 +11,7 @@ import java.util.*;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.io.*;
 
+import top.Blocking;
 import top.Task;
 import hedc.ethz.util.*;
 import static top.Permissions.perm;
@@ -124,7 +125,8 @@ public class MetaSearchImpl implements MetaSearch {
 				perm.replaceNowWithTask(task, taskTask);
 				
 				taskTask.hb(joinTask);	   
-				
+				//start the request right away instead of after all requests are scheduled
+				now.release(taskTask);
 			}
 		}
 
@@ -133,6 +135,7 @@ public class MetaSearchImpl implements MetaSearch {
 		joinTask.hb(later);
 	}
 
+	@Blocking
 	public void topTask_search_3(Task now, Task later, Hashtable h, MetaSearchRequest r) {    	
 		perm.checkRead(this);
 		perm.checkRead(h);
@@ -9,6 +9,7 @@ package hedc.top.hedc;
 
 import java.util.*;
 
+import top.Blocking;
 import top.Task;
 import hedc.ethz.util.*;
 import static top.Permissions.perm;
@@ -64,6 +65,7 @@ public abstract class MetaSearchResult extends HedcTask implements Cloneable {
 	}
 
 	@Override
+	@Blocking
 	public void topTask_run(Task now) {
 		System.out.println("task running");
 		try {
@@ -119,7 +119,6 @@ public class Tester {
 		System.out.println("starting Iteration " + iterations_);
 		if (iterations_ > 0) {
 			try {
-				Thread.sleep((long) (pause_ * Math.random()));
 				Hashtable parameters = new Hashtable();
 				parameters.put("MESOLA", TES_MESOLA_);
 				parameters.put("SACREAMENTAL", TES_SACREAMENTAL_);
@@ -137,6 +136,8 @@ public class Tester {
 				perm.replaceNowWithTask(m, goTask);
 				perm.replaceNowWithTask(msi_, goTask);				
 				m.topTask_go(goTask, writeTask);
+				//the timer holds the request back instead of sleeping in this task
+				goTask.notBefore((long) (pause_ * Math.random()));
 				
 				//write task; go forwards its permissions for m and msi_ 
 				this.topTask_writeResult(writeTask, nextIteration, m);
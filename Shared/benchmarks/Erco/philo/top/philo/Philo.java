@@ -1,6 +1,7 @@
 package philo.top.philo;
 import java.util.*;
 
+import top.Blocking;
 import top.Task;
 import static top.Permissions.perm;
 
@@ -62,6 +63,7 @@ public class Philo {
 	this.t = t;
     }
                 
+    @Blocking
     public void topTask_run(Task now) {
 	System.out.println(id + " run start");
 	o = perm.newObject(new Hashtable());
@@ -9,6 +9,7 @@ package sor.top.sor;
 
 import java.util.*;
 
+import top.GraphTemplate;
 import top.Task;
 import static top.Permissions.perm;
 
@@ -78,13 +79,16 @@ public class Sor {
 		System.gc();
 		long a = new Date().getTime();
 
+		Task main = new Task();
 		if (!nop) {
-			new Sor().topMainTask_begin(new Task());
+			new Sor().topMainTask_begin(main);
 		}
 
 		long b = new Date().getTime();
 
 		System.out.println("Sor-" + nprocs + "\t" + Long.toString(b - a));
+		if (!nop && main.domain().workSpan() != null)
+			System.out.println(main.domain().workSpan());
 
 		// print out results
 		float red_sum = 0, black_sum = 0;
@@ -137,6 +141,40 @@ public class Sor {
 		
 		//we're done with t
 		perm.makeImmutable(t);
+		
+		this.buildIterationTemplate();
+	}
+	
+	//every iteration schedules the same graph; we set it up once and instantiate it in each iteration
+	GraphTemplate iterationTemplate;
+	int nextIterationNode;
+	int[] phase1Nodes;
+	int[] phase2Nodes;
+	
+	private void buildIterationTemplate() {
+		GraphTemplate template = new GraphTemplate();
+		nextIterationNode = template.task(this, "topTask_iteration", Task.class);
+		//the barriers are pure join points; all phase tasks of the iteration arrive at them
+		int barrier1 = template.barrier(nprocs);
+		int barrier2 = template.barrier(nprocs);
+		template.hb(barrier1, barrier2);
+		template.hb(barrier2, nextIterationNode);
+		
+		phase1Nodes = new int[nprocs];
+		phase2Nodes = new int[nprocs];
+		for (int proc_id = 0; proc_id < nprocs; proc_id++) {
+			int p1 = template.task(t[proc_id], "topTask_phase1", Task.class);
+			int p2 = template.task(t[proc_id], "topTask_phase2", Task.class);
+			//both phases of a stripe touch the same rows; keep them on the same worker in every iteration
+			template.setAffinity(p1, proc_id);
+			template.setAffinity(p2, proc_id);
+			template.hb(p1, barrier1);
+			template.hb(barrier1, p2);
+			template.hb(p2, barrier2);
+			phase1Nodes[proc_id] = p1;
+			phase2Nodes[proc_id] = p2;
+		}
+		iterationTemplate = template;
 	}
 	
 	public static volatile int i = -1;
@@ -145,50 +183,30 @@ public class Sor {
 		i++;
 		//System.out.println("Setting up next iteration " + i);
 		if(i < Sor.iterations) {
-			Task nextIteration = new Task();
-			Task barrier1 = new Task();
-			Task barrier2 = new Task();
+			Task[] graph = iterationTemplate.newInstance();
+			Task nextIteration = graph[nextIterationNode];
 			
-			this.topTask_iteration(nextIteration, later);
-			this.topTask_barrier1(barrier1);
-			this.topTask_barrier2(barrier2);
+			Object[][] args = new Object[graph.length][];
+			args[nextIterationNode] = new Object[] { later };
+			for (int proc_id = 0; proc_id < nprocs; proc_id++) {
+				//the first phase forwards the permissions to the second one when it's done
+				args[phase1Nodes[proc_id]] = new Object[] { graph[phase2Nodes[proc_id]] };
+				args[phase2Nodes[proc_id]] = new Object[] { nextIteration };
+			}
+			iterationTemplate.schedule(graph, args);
+			nextIteration.hb(later);
 			
 			//the iteration accesses the static field i
 			perm.replaceNowWithTask(Sor.class, nextIteration);
 			
-			barrier1.hb(barrier2);
-			barrier2.hb(nextIteration);
-			nextIteration.hb(later);
-					
 			perm.checkRead(t);
 			for (int proc_id = 0; proc_id < nprocs; proc_id++) {
-				SorWorker worker = t[proc_id];
-				
-				//schedule second phase first because first phase needs reference so that it
-				//can forward the permissions when it's done
-				Task p2 = new Task();
-				worker.topTask_phase2(p2, nextIteration);
-				
-				//schedule new worker task and forward our access rights to it
-				Task p1 = new Task();				
-				worker.topTask_phase1(p1, p2);
-				perm.replaceNowWithTask(worker, p1);
-
-				p1.hb(barrier1);
-				barrier1.hb(p2);
-				p2.hb(barrier2);
+				//forward our access rights to the new worker task
+				perm.replaceNowWithTask(t[proc_id], graph[phase1Nodes[proc_id]]);
 			}
 		}		
 	}
 	
-	public void topTask_barrier1(Task now) {
-		//System.out.println("Barrier 1 of iteration " + i + " reached");
-	}
-	
-	public void topTask_barrier2(Task now) {
-		//System.out.println("Barrier 2 of iteration " + i + " reached");
-	}
-	
 	public void topTask_end(Task now) {
 		System.out.println("activations are done...");
 	}
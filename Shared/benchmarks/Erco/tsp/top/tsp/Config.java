@@ -1,11 +1,9 @@
 package tsp.top.tsp;
 
-import java.util.PriorityQueue;
 import static top.Permissions.perm;
 
 public class Config {
 	
-	private final PriorityQueue<TourElement> queue;	
 	final int numNodes;
 	final int[][] weights;
 	
@@ -16,9 +14,6 @@ public class Config {
 	int[] minTour;
 	
 	Config(int tspSize) {
-		queue = new PriorityQueue<TourElement>();
-		perm.makeShared(perm.newObject(queue));
-		
 		numNodes = tspSize;
 		
 		weights = new int[numNodes + 1][numNodes + 1];
@@ -31,22 +26,6 @@ public class Config {
 		nodesFromEnd = 12;
 	}
 	
-	TourElement getTour() {
-		perm.checkRead(this);
-		perm.checkWrite(queue);
-		synchronized(queue) {
-			return queue.remove();
-		}		
-	}
-
-	public void enqueue(final TourElement newTour) {
-		perm.checkRead(this);
-		perm.checkWrite(queue);
-		synchronized(queue) {
-			queue.add(newTour);
-		}		
-	}
-	
 	public void setBest(final int curDist, final int[] path) {
 		perm.checkWrite(minTour);
 		synchronized(this) {
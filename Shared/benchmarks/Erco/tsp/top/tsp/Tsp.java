@@ -1,11 +1,14 @@
 package tsp.top.tsp;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.StringTokenizer;
 
+import top.Scheduler;
 import top.Task;
+import top.trace.TraceRecorder;
 import static top.Permissions.perm;
 
 public class Tsp {
@@ -38,11 +41,10 @@ public class Tsp {
 	public void topMainTask_solve(Task now, Config config) {
 		perm.newObject(config);
 		TourElement first = new TourElement(config.startNode);
-		config.enqueue(first);
 		
 		Task solverTask = new Task();
 		TspSolver solver = perm.newObject(new TspSolver(config));
-		solver.topTask_run(solverTask);
+		solver.topTask_run(solverTask, first);
 		
 		perm.addTask(config, solverTask);
 		perm.replaceNowWithTask(solver, solverTask);
@@ -52,7 +54,10 @@ public class Tsp {
 	{
 		final Config config = loadConfig(fname);
 		
-		this.topMainTask_solve(new Task(), config);
+		Task main = new Task();
+		this.topMainTask_solve(main, config);
+		if(main.domain().workSpan() != null)
+			System.err.println(main.domain().workSpan());
 				
 		// Sanity checks:
 		System.err.printf("minTourLength: %d\n", config.minTourLength);
@@ -88,8 +93,18 @@ public class Tsp {
 	public static void main(String args[]) throws IOException {
 		//start with argument like shared_tests/Benchmarks/Erco/tsp/tspfiles/map10
 		//can only handle one file right now due to the way I create the initial activation.
+		//best-first: solver tasks with a lower bound run first; -Dtsp.fifo=true runs them in deque order
+		Scheduler.PRIORITY_SCHEDULING = ! Boolean.getBoolean("tsp.fifo");
+		//-Dtsp.trace=file records the task life cycle; convert the file with top.trace.ChromeTrace
+		String traceFile = System.getProperty("tsp.trace");
+		if(traceFile != null)
+			TraceRecorder.start();
 		Tsp tsp = new Tsp();
 		int[] tour = tsp.solve(args[0]).minTour;
+		if(traceFile != null) {
+			TraceRecorder.stop();
+			TraceRecorder.dump(new File(traceFile));
+		}
 			
 		for(int i = 0; i < tour.length; i++)
 			System.out.printf(" %d", tour[i]);
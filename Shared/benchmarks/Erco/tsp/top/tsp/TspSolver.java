@@ -18,19 +18,19 @@ public class TspSolver {
 		this.config = config;
 	}
 
-	public void topTask_run(Task now) {
+	//every solver task gets its own partial tour; the scheduler runs the solver tasks with the lowest bound first
+	public void topTask_run(Task now, TourElement curr) {
 		
 		perm.checkRead(this);
-		TourElement curr = config.getTour();
-	
 		perm.checkRead(curr);
 		perm.checkRead(config);
 		if (curr.length < (config.numNodes - config.nodesFromEnd - 1))
 			/* Solve in parallel. */
 			/*
-			 * Create a tour and add it to the priority Q for each possible path
+			 * Create a tour and a solver task for each possible path
 			 * that can be derived from the current path by adding a single node
-			 * while staying under the current minimum tour length.
+			 * while staying under the current minimum tour length. The task's priority
+			 * is the negated lower bound so that the most promising tours run first.
 			 */
 			//split tour
 			for (int i = 0; i < config.numNodes; i++) {
@@ -53,13 +53,14 @@ public class TspSolver {
 					newTour.prefixWeight = curr.prefixWeight + wt;
 					newTour.lowerBound = calcBound(newTour);
 					
-					config.enqueue(newTour);
-					
 					Task solveTask = new Task();
 					TspSolver solver = new TspSolver(config);
-					solver.topTask_run(solveTask);			
+					solver.topTask_run(solveTask, newTour);
+					solveTask.setPriority(-newTour.lowerBound);
 					perm.replaceNowWithTask(perm.newObject(solver), solveTask);
 					perm.addTask(config, solveTask);
+					//the child is set up; let it run while we look at the remaining nodes
+					now.release(solveTask);
 				}
 			}
 		else
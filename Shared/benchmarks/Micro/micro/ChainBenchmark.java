@@ -0,0 +1,56 @@
+package micro;
+
+import top.ScheduleDomain;
+import top.Task;
+
+/**
+ * measures the per-step latency of long task chains with and without inline continuations.
+ *
+ * Every step schedules the next step and retires, so each step makes exactly one successor ready;
+ * that's the shape of Sor's iteration/barrier chain, hedc's goTask/writeTask loop and Lift's rounds.
+ *
+ * run with: java -javaagent:top_runtime.jar micro.ChainBenchmark [length] [rounds]
+ */
+public class ChainBenchmark {
+
+	static volatile int sink;
+
+	public void topTask_step(Task now, Integer remaining) {
+		int r = remaining.intValue();
+		sink++;
+		if(r > 0)
+			this.topTask_step(new Task(), Integer.valueOf(r - 1));
+	}
+
+	public void topMainTask_chain(Task now, Integer length) {
+		this.topTask_step(new Task(), length);
+	}
+
+	private ScheduleDomain chain(boolean inline, int length) {
+		Task.INLINE_CONTINUATIONS = inline;
+		Task main = new Task();
+		this.topMainTask_chain(main, length);
+		return main.domain();
+	}
+
+	public static void main(String[] args) {
+		int length = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		boolean checks = Task.CHECK_WELLFORMEDNESS;
+		boolean inline = Task.INLINE_CONTINUATIONS;
+		Task.CHECK_WELLFORMEDNESS = false;
+
+		ChainBenchmark bench = new ChainBenchmark();
+		//alternate between the two modes to keep the comparison fair
+		for(int round = 0; round < rounds; round++) {
+			ScheduleDomain forked = bench.chain(false, length);
+			ScheduleDomain inlined = bench.chain(true, length);
+			System.out.printf("chain (%d) round %d: forked %6.1f ns/step, inlined %6.1f ns/step (%d of %d tasks inlined)%n",
+					length, round, (double)forked.elapsedNanos() / length, (double)inlined.elapsedNanos() / length,
+					inlined.tasksInlined(), inlined.tasksExecuted());
+		}
+
+		Task.INLINE_CONTINUATIONS = inline;
+		Task.CHECK_WELLFORMEDNESS = checks;
+	}
+}
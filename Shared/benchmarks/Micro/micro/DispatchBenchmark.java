@@ -0,0 +1,78 @@
+package micro;
+
+import java.lang.reflect.Method;
+
+import top.Task;
+import top.TaskInvoker;
+
+/**
+ * compares the per-task dispatch cost of Method.invoke() with generated task invokers.
+ *
+ * The first part measures the raw call, the second part schedules many tiny tasks from a main task
+ * once with reflection and once with generated invokers.
+ *
+ * run with: java -javaagent:top_runtime.jar micro.DispatchBenchmark [numTasks] [rounds]
+ */
+public class DispatchBenchmark {
+
+	static volatile int sink;
+
+	public void topTask_tiny(Task now, Integer value) {
+		sink += value.intValue();
+	}
+
+	public void topMainTask_spawn(Task now, Integer numTasks) {
+		Integer one = Integer.valueOf(1);
+		for(int i = 0; i < numTasks.intValue(); i++) {
+			this.topTask_tiny(new Task(), one);
+		}
+	}
+
+	private static long rawDispatch(TaskInvoker invoker, Object receiver, int calls) throws Exception {
+		Object[] params = new Object[] { new Task(), Integer.valueOf(1) };
+		long start = System.nanoTime();
+		for(int i = 0; i < calls; i++) {
+			invoker.invoke(receiver, params);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private long spawn(boolean generated, int numTasks) {
+		Task.GENERATE_INVOKERS = generated;
+		long start = System.nanoTime();
+		this.topMainTask_spawn(new Task(), numTasks);
+		return System.nanoTime() - start;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int numTasks = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		boolean checks = Task.CHECK_WELLFORMEDNESS;
+		Task.CHECK_WELLFORMEDNESS = false;
+
+		DispatchBenchmark bench = new DispatchBenchmark();
+		Method m = DispatchBenchmark.class.getMethod("topTask_tiny", Task.class, Integer.class);
+		TaskInvoker reflective = TaskInvoker.reflective(m);
+		TaskInvoker generated = TaskInvoker.generate(m);
+		System.out.println("generated invoker: " + generated.getClass().getName());
+
+		int calls = numTasks * 10;
+		for(int round = 0; round < rounds; round++) {
+			long r = rawDispatch(reflective, bench, calls);
+			long g = rawDispatch(generated, bench, calls);
+			System.out.printf("raw dispatch      round %d: Method.invoke %6.2f ns/call, generated %6.2f ns/call%n",
+					round, (double)r / calls, (double)g / calls);
+		}
+
+		//alternate between the two modes to keep the comparison fair
+		for(int round = 0; round < rounds; round++) {
+			long r = bench.spawn(false, numTasks);
+			long g = bench.spawn(true, numTasks);
+			System.out.printf("tasks (%d)  round %d: reflective %6.1f ns/task, generated %6.1f ns/task%n",
+					numTasks, round, (double)r / numTasks, (double)g / numTasks);
+		}
+
+		Task.GENERATE_INVOKERS = true;
+		Task.CHECK_WELLFORMEDNESS = checks;
+	}
+}
@@ -0,0 +1,106 @@
+package micro;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import top.Task;
+import top.instrumentation.Instrumenter;
+
+/**
+ * reports the memory footprint of tasks, similar to what JOL prints:
+ * the field layout of a Task, its shallow size and the heap bytes per task while the tasks are pending and after they retired.
+ *
+ * The main task schedules numTasks tasks that all get the same payload object, so the numbers only contain what the
+ * runtime allocates per task: the task, its successor node in the main task, the parameter array and so on.
+ * The retired numbers are measured while we still hold references to all tasks, like a graph that keeps
+ * its finished tasks around.
+ *
+ * run with: java -javaagent:top_runtime.jar micro.FootprintBenchmark [numTasks]
+ */
+public class FootprintBenchmark {
+
+	static final Object Payload = new int[1024];
+
+	Task[] tasks;
+	long pendingBytes;
+
+	public void topTask_leaf(Task now, Object payload) {
+	}
+
+	public void topMainTask_main(Task now, Integer numTasks) {
+		long before = usedHeap();
+		for(int i = 0; i < tasks.length; i++) {
+			Task t = new Task();
+			this.topTask_leaf(t, Payload);
+			tasks[i] = t;
+		}
+		pendingBytes = usedHeap() - before;
+	}
+
+	private static long usedHeap() {
+		java.lang.Runtime rt = java.lang.Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for(int i = 0; i < 5; i++) {
+			System.gc();
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+			}
+			used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+		}
+		return used;
+	}
+
+	private static void printLayout(Class<?> c) {
+		ArrayList<Field> fields = new ArrayList<Field>();
+		for(Class<?> k = c; k != null; k = k.getSuperclass()) {
+			for(Field f : k.getDeclaredFields()) {
+				if(! Modifier.isStatic(f.getModifiers()))
+					fields.add(f);
+			}
+		}
+		Collections.sort(fields, new Comparator<Field>() {
+			@Override
+			public int compare(Field a, Field b) {
+				long oa = top.Runtime.unsafe.objectFieldOffset(a);
+				long ob = top.Runtime.unsafe.objectFieldOffset(b);
+				return oa < ob ? -1 : (oa == ob ? 0 : 1);
+			}
+		});
+		System.out.println(c.getName() + " object internals:");
+		System.out.printf(" OFFSET  %-28s %s%n", "TYPE", "FIELD");
+		for(Field f : fields) {
+			System.out.printf(" %6d  %-28s %s.%s%n", top.Runtime.unsafe.objectFieldOffset(f), f.getType().getSimpleName(),
+					f.getDeclaringClass().getSimpleName(), f.getName());
+		}
+		Instrumentation inst = Instrumenter.instrumentation();
+		if(inst != null)
+			System.out.println("Instance size: " + inst.getObjectSize(new Task()) + " bytes");
+		else
+			System.out.println("Instance size: unknown (run with the agent)");
+	}
+
+	public static void main(String[] args) {
+		int numTasks = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		boolean checks = Task.CHECK_WELLFORMEDNESS;
+		Task.CHECK_WELLFORMEDNESS = false;
+
+		printLayout(Task.class);
+		System.out.println();
+
+		FootprintBenchmark bench = new FootprintBenchmark();
+		bench.tasks = new Task[numTasks];
+		long before = usedHeap();
+		bench.topMainTask_main(new Task(), numTasks);
+		long retiredBytes = usedHeap() - before;
+
+		System.out.printf("pending tasks: %6.1f bytes/task%n", (double)bench.pendingBytes / numTasks);
+		System.out.printf("retired tasks: %6.1f bytes/task%n", (double)retiredBytes / numTasks);
+
+		Task.CHECK_WELLFORMEDNESS = checks;
+	}
+}
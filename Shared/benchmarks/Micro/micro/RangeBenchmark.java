@@ -0,0 +1,56 @@
+package micro;
+
+import top.Range;
+import top.Task;
+
+/**
+ * compares a loop that schedules one task per index with a single range task over the same indices.
+ *
+ * run with: java -javaagent:top_runtime.jar micro.RangeBenchmark [size] [grain] [rounds]
+ */
+public class RangeBenchmark {
+
+	static double[] data;
+
+	public void topTask_element(Task now, Integer index) {
+		int i = index.intValue();
+		data[i] = Math.sqrt(i);
+	}
+
+	public void topMainTask_perIndex(Task now, Integer size) {
+		for(int i = 0; i < size.intValue(); i++) {
+			this.topTask_element(new Task(), i);
+		}
+	}
+
+	public void topMainTask_range(Task now, Integer size, Integer grain) {
+		Range.schedule(new Task(), 0, size.intValue(), grain.intValue(), new Range.Body() {
+			@Override
+			public void run(int from, int to) {
+				for(int i = from; i < to; i++) {
+					data[i] = Math.sqrt(i);
+				}
+			}
+		});
+	}
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int grain = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		data = new double[size];
+
+		RangeBenchmark bench = new RangeBenchmark();
+		for(int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			bench.topMainTask_perIndex(new Task(), size);
+			long perIndex = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			bench.topMainTask_range(new Task(), size, grain);
+			long range = System.nanoTime() - start;
+			System.out.printf("round %d: one task per index %8.2f ms, range (grain %d) %8.2f ms%n",
+					round, perIndex / 1e6, grain, range / 1e6);
+		}
+	}
+}
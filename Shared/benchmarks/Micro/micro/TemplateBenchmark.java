@@ -0,0 +1,117 @@
+package micro;
+
+import top.Barrier;
+import top.GraphTemplate;
+import top.Task;
+
+/**
+ * compares iterative schedules that build every iteration task by task with the same schedule instantiated from a GraphTemplate.
+ * An iteration has width empty workers between two barriers, like an iteration of Sor.
+ *
+ * run with: java -javaagent:top_runtime.jar micro.TemplateBenchmark [iterations] [width] [rounds]
+ */
+public class TemplateBenchmark {
+
+	int iterations;
+	int width;
+	int iteration;
+	GraphTemplate template;
+	int nextNode;
+	//the two worker nodes of each stripe
+	int[] workNodes;
+
+	public void topTask_work(Task now, Integer stripe) {
+	}
+
+	public void topTask_byHand(Task now, Task later) {
+		if(++this.iteration >= this.iterations)
+			return;
+		Task next = new Task();
+		this.topTask_byHand(next, later);
+		Task barrier1 = new Task();
+		Task barrier2 = new Task();
+		Barrier.schedule(barrier1, this.width);
+		Barrier.schedule(barrier2, this.width);
+		barrier1.hb(barrier2);
+		barrier2.hb(next);
+		next.hb(later);
+		for(int i = 0; i < this.width; i++) {
+			Task p1 = new Task();
+			Task p2 = new Task();
+			this.topTask_work(p1, i);
+			this.topTask_work(p2, i);
+			p1.hb(barrier1);
+			barrier1.hb(p2);
+			p2.hb(barrier2);
+		}
+	}
+
+	public void topTask_fromTemplate(Task now, Task later) {
+		if(++this.iteration >= this.iterations)
+			return;
+		Task[] graph = this.template.newInstance();
+		Object[][] args = new Object[graph.length][];
+		args[this.nextNode] = new Object[] { later };
+		for(int i = 0; i < this.workNodes.length; i++) {
+			args[this.workNodes[i]] = new Object[] { Integer.valueOf(i / 2) };
+		}
+		this.template.schedule(graph, args);
+		graph[this.nextNode].hb(later);
+	}
+
+	public void topTask_done(Task now) {
+	}
+
+	public void topMainTask_run(Task now, Boolean useTemplate) {
+		this.iteration = 0;
+		Task done = new Task();
+		this.topTask_done(done);
+		Task first = new Task();
+		if(useTemplate.booleanValue()) {
+			this.topTask_fromTemplate(first, done);
+		} else {
+			this.topTask_byHand(first, done);
+		}
+		first.hb(done);
+	}
+
+	private void buildTemplate() {
+		GraphTemplate template = new GraphTemplate();
+		this.nextNode = template.task(this, "topTask_fromTemplate", Task.class);
+		int barrier1 = template.barrier(this.width);
+		int barrier2 = template.barrier(this.width);
+		template.hb(barrier1, barrier2);
+		template.hb(barrier2, this.nextNode);
+		this.workNodes = new int[2 * this.width];
+		for(int i = 0; i < this.width; i++) {
+			int p1 = template.task(this, "topTask_work", Integer.class);
+			int p2 = template.task(this, "topTask_work", Integer.class);
+			template.hb(p1, barrier1);
+			template.hb(barrier1, p2);
+			template.hb(p2, barrier2);
+			this.workNodes[2 * i] = p1;
+			this.workNodes[2 * i + 1] = p2;
+		}
+		this.template = template;
+	}
+
+	public static void main(String[] args) {
+		TemplateBenchmark bench = new TemplateBenchmark();
+		bench.iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		bench.width = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		bench.buildTemplate();
+
+		for(int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			bench.topMainTask_run(new Task(), false);
+			long byHand = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			bench.topMainTask_run(new Task(), true);
+			long fromTemplate = System.nanoTime() - start;
+			System.out.printf("round %d: by hand %6.2f us/iteration, template %6.2f us/iteration%n",
+					round, byHand / 1e3 / bench.iterations, fromTemplate / 1e3 / bench.iterations);
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package micro;
+
+import top.ScheduleDomain;
+import top.Scheduler;
+import top.Task;
+
+/**
+ * measures how tiny tasks scale from 1 to N workers.
+ *
+ * The main task spawns a binary tree of tasks that do almost nothing, so the run time is dominated by the
+ * runtime's own bookkeeping: retain counts, forking, and counting ready tasks for termination detection.
+ * Every run uses its own Scheduler with p workers.
+ *
+ * run with: java -javaagent:top_runtime.jar micro.TerminationBenchmark [depth] [rounds] [maxWorkers]
+ */
+public class TerminationBenchmark {
+
+	static volatile int sink;
+
+	public void topTask_split(Task now, Integer depth) {
+		int d = depth.intValue();
+		if(d == 0) {
+			sink++;
+			return;
+		}
+		Integer next = Integer.valueOf(d - 1);
+		this.topTask_split(new Task(), next);
+		this.topTask_split(new Task(), next);
+	}
+
+	public void topMainTask_tree(Task now, Integer depth) {
+		this.topTask_split(new Task(), depth);
+	}
+
+	private ScheduleDomain run(Scheduler scheduler, int depth) {
+		Scheduler.setDefault(scheduler);
+		try {
+			Task main = new Task();
+			this.topMainTask_tree(main, depth);
+			return main.domain();
+		} finally {
+			Scheduler.setDefault(null);
+		}
+	}
+
+	public static void main(String[] args) {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int maxWorkers = args.length > 2 ? Integer.parseInt(args[2]) : java.lang.Runtime.getRuntime().availableProcessors();
+		boolean checks = Task.CHECK_WELLFORMEDNESS;
+		Task.CHECK_WELLFORMEDNESS = false;
+
+		TerminationBenchmark bench = new TerminationBenchmark();
+		double base = 0;
+		for(int p = 1; p <= maxWorkers; p++) {
+			Scheduler scheduler = new Scheduler(p).start();
+			try {
+				//first round is warm up
+				bench.run(scheduler, depth);
+				long best = Long.MAX_VALUE;
+				long tasks = 0;
+				for(int round = 0; round < rounds; round++) {
+					ScheduleDomain domain = bench.run(scheduler, depth);
+					best = Math.min(best, domain.elapsedNanos());
+					tasks = domain.tasksExecuted();
+				}
+				double perSecond = tasks * 1e9 / best;
+				if(p == 1)
+					base = perSecond;
+				System.out.printf("workers %2d: %8d tasks in %7.2f ms, %6.2f Mtasks/s, speedup %5.2f%n",
+						p, tasks, best / 1e6, perSecond / 1e6, perSecond / base);
+			} finally {
+				scheduler.close();
+			}
+		}
+
+		Task.CHECK_WELLFORMEDNESS = checks;
+	}
+}
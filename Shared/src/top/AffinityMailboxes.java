@@ -0,0 +1,157 @@
+package top;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import jsr166y.ForkJoinWorkerThread;
+import jsr166y.RecursiveAction;
+
+/**
+ * Places ready tasks that have an affinity (see Task.setAffinity()) on the worker their affinity hashes to.
+ *
+ * A fork join pool can't push a task into the deque of another worker, so every worker has a mailbox instead.
+ * Submitting an affine task from another thread posts it to the mailbox of its worker and forks an anonymous drain token.
+ * Whoever runs a token runs one task from its own mailbox if there is one. Otherwise it only takes a task from
+ * another mailbox if that worker is behind (has many tasks waiting) or if the task waited longer than the scheduler's
+ * affinity delay (see Scheduler.setAffinityDelay()); that keeps tasks on their worker without letting them starve
+ * when their worker is busy with something else.
+ * A token that finds only young tasks of other workers doesn't wait for them; it returns right away and asks the scheduler's
+ * timer for a new token when the oldest of them becomes overdue, in case its worker still didn't get to it by then.
+ * Workers also check their mailbox whenever they finish a task.
+ *
+ * There is at least one token for each posted task, so a token may find nothing to do; that's fine.
+ * Posted tasks are already counted as ready in their domain.
+ * @author angererc
+ *
+ */
+final class AffinityMailboxes {
+
+	//a worker with this many waiting tasks is behind and other workers may take its tasks
+	static int Behind = 4;
+
+	private static final int Padding = 16;
+
+	private static final class Mail {
+		final Task task;
+		final long posted;
+		Mail(Task task) {
+			this.task = task;
+			this.posted = System.nanoTime();
+		}
+	}
+
+	//a class of its own so that we can have an array of them without raw types
+	private static final class Mailbox extends ConcurrentLinkedQueue<Mail> {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private final Scheduler scheduler;
+	private final Mailbox[] mailboxes;
+	//approximate number of tasks in each mailbox
+	private final AtomicIntegerArray sizes;
+
+	AffinityMailboxes(Scheduler scheduler, int parallelism) {
+		this.scheduler = scheduler;
+		this.mailboxes = new Mailbox[parallelism];
+		for(int i = 0; i < parallelism; i++) {
+			this.mailboxes[i] = new Mailbox();
+		}
+		this.sizes = new AtomicIntegerArray(parallelism * Padding);
+	}
+
+	//the worker an affinity key maps to
+	int workerFor(int affinity) {
+		return affinity % this.mailboxes.length;
+	}
+
+	//the mailbox index of the current thread; -1 if it's not a worker
+	int currentWorker() {
+		Thread t = Thread.currentThread();
+		if(t instanceof ForkJoinWorkerThread)
+			return ((ForkJoinWorkerThread)t).getPoolIndex() % this.mailboxes.length;
+		return -1;
+	}
+
+	//returns a token that the caller must fork or execute
+	RecursiveAction post(Task task, int worker) {
+		this.mailboxes[worker].add(new Mail(task));
+		this.sizes.incrementAndGet(worker * Padding);
+		return new Drain();
+	}
+
+	//a task from the mailbox of worker; null if it's empty
+	Task take(int worker) {
+		Mail mail = this.mailboxes[worker].poll();
+		if(mail == null)
+			return null;
+		this.sizes.decrementAndGet(worker * Padding);
+		return mail.task;
+	}
+
+	//a task from another worker's mailbox if that worker is behind or the task waited too long
+	private Task takeOverdue(int self) {
+		long now = System.nanoTime();
+		long maxDelay = this.scheduler.affinityDelayNanos();
+		for(int i = 0; i < this.mailboxes.length; i++) {
+			if(i == self)
+				continue;
+			Mail head = this.mailboxes[i].peek();
+			if(head == null)
+				continue;
+			if(this.sizes.get(i * Padding) >= Behind || now - head.posted >= maxDelay) {
+				Task task = this.take(i);
+				if(task != null)
+					return task;
+			}
+		}
+		return null;
+	}
+
+	//nanos until the oldest waiting task becomes overdue; -1 if all mailboxes are empty
+	private long nextOverdue() {
+		long oldest = Long.MAX_VALUE;
+		for(int i = 0; i < this.mailboxes.length; i++) {
+			Mail head = this.mailboxes[i].peek();
+			if(head != null)
+				oldest = Math.min(oldest, head.posted);
+		}
+		if(oldest == Long.MAX_VALUE)
+			return -1;
+		return Math.max(0, oldest + this.scheduler.affinityDelayNanos() - System.nanoTime());
+	}
+
+	//forks a new token once the oldest waiting task is overdue
+	private void recheckLater(long delayNanos) {
+		final Scheduler scheduler = this.scheduler;
+		if(! scheduler.isRunning())
+			return;
+		scheduler.timer().schedule(delayNanos, TimeUnit.NANOSECONDS, new Runnable() {
+			@Override
+			public void run() {
+				if(scheduler.isRunning())
+					scheduler.execute(new Drain());
+			}
+		});
+	}
+
+	private final class Drain extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+			int self = currentWorker();
+			Task task = self >= 0 ? take(self) : null;
+			if(task == null)
+				task = takeOverdue(self);
+			if(task != null) {
+				task.compute();
+				return;
+			}
+			//the waiting tasks are young and their workers will get to them soon; don't keep this worker from its own deque
+			long delay = nextOverdue();
+			if(delay >= 0)
+				recheckLater(delay);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package top;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import top.utils.CombiningTree;
+
+/**
+ * A join point of the task graph that doesn't run a task body.
+ *
+ * Task barrier = new Task();
+ * Barrier.schedule(barrier, n);
+ * for(...) { participant.hb(barrier); barrier.hb(next); }
+ *
+ * A barrier is a task like any other: participants arrive at it with hb edges and it releases its successors when
+ * the last of them retired. But it has no task method; its invoker does nothing, so it costs no method lookup and no call.
+ * Barriers with many participants would make all of them hit the retain count of the barrier at the same time
+ * when they retire, so a barrier counts its pending edges in a CombiningTree instead. Every predecessor arrives at and departs from
+ * the leaf of its own hash; predecessors on different leaves only meet at the inner nodes when their leaf becomes empty.
+ * The tree's rules hold because only tasks that happen before the barrier add edges to it, so some other edge
+ * keeps the barrier retained while they arrive (except for the creator's first edge).
+ * A padded tree costs a cache line per node, though, and few participants don't contend much; barriers for up to
+ * SmallBarrier participants just count their edges in a plain int.
+ * @author angererc
+ *
+ */
+public final class Barrier {
+
+	static final TaskInvoker Invoker;
+	static {
+		try {
+			Invoker = new EmptyInvoker(Barrier.class.getMethod("topTask_barrier", Task.class));
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	//barriers for more participants count their edges in a combining tree
+	static int SmallBarrier = 32;
+
+	private static final AtomicIntegerFieldUpdater<Barrier> PendingUpdater = AtomicIntegerFieldUpdater.newUpdater(Barrier.class, "pending");
+
+	//pending edges into the barrier; in the tree if there is one
+	private final CombiningTree arrivals;
+	private volatile int pending;
+
+	private Barrier(int leaves) {
+		this.arrivals = leaves > 0 ? new CombiningTree(leaves, leaves > 1) : null;
+	}
+
+	/**
+	 * schedules task as a barrier of now; participants is the number of tasks that are expected to arrive
+	 * and only sizes the counter, more or less are fine
+	 * @param task a fresh task, like the first argument of a topTask_ method
+	 * @param participants
+	 */
+	public static void schedule(Task task, int participants) {
+		if(participants <= 0)
+			throw new IllegalArgumentException("participants must be positive but was " + participants);
+		task.scheduleAsNormalTask(create(Task.now(), participants), Invoker, task);
+	}
+
+	//a new barrier for the given number of participants in the domain of now
+	static Barrier create(Task now, int participants) {
+		if(participants <= SmallBarrier)
+			return new Barrier(0);
+		int workers = now == null ? 1 : now.domain().scheduler().parallelism();
+		//more leaves than workers don't spread the updates any further
+		return new Barrier(Math.min(participants, workers));
+	}
+
+	/**
+	 * schedules task as a barrier of now that is sized for one participant per worker
+	 * @param task
+	 */
+	public static void schedule(Task task) {
+		Task now = Task.now();
+		schedule(task, now == null ? 1 : now.domain().scheduler().parallelism());
+	}
+
+	//the task method of barriers; never called, barriers are bound to an invoker without body
+	public void topTask_barrier(Task now) {
+	}
+
+	/*
+	 * called by Task for the edges into the barrier task
+	 */
+
+	void arrive(Task predecessor) {
+		if(this.arrivals == null)
+			PendingUpdater.incrementAndGet(this);
+		else
+			this.arrivals.arrive(this.leafOf(predecessor));
+	}
+
+	//returns true if that was the last pending edge
+	boolean depart(Task predecessor) {
+		if(this.arrivals == null)
+			return PendingUpdater.decrementAndGet(this) == 0;
+		return this.arrivals.depart(this.leafOf(predecessor));
+	}
+
+	private int leafOf(Task predecessor) {
+		int h = System.identityHashCode(predecessor);
+		return (h ^ (h >>> 16)) & (this.arrivals.leaves() - 1);
+	}
+
+	private static final class EmptyInvoker extends TaskInvoker {
+		EmptyInvoker(Method method) {
+			super(method);
+		}
+
+		@Override
+		public void invoke(Object receiver, Object[] params) {
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Barrier(" + (this.arrivals == null ? "pending=" + this.pending : this.arrivals.toString()) + ")";
+	}
+}
@@ -0,0 +1,25 @@
+package top;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a task method that blocks (sleeps, waits on a monitor, does blocking I/O).
+ *
+ * Tasks of blocking methods don't run on the scheduler's fork join workers, where they would pin a worker
+ * and starve the compute tasks, but on the scheduler's blocking threads (virtual threads if the JVM has them).
+ * Everything else stays the same: the task is scheduled, ordered and released like any other task and
+ * "now" and the permissions work as usual.
+ * Overrides of a blocking task method are blocking too, even if they don't repeat the annotation.
+ *
+ * @Blocking
+ * public void topTask_poll(Task now) { Thread.sleep(100); ... }
+ * @author angererc
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Blocking {
+}
@@ -0,0 +1,65 @@
+package top;
+
+import jsr166y.RecursiveAction;
+
+/**
+ * Releases the successors of a retiring task in parallel.
+ *
+ * A task with thousands of successors (a parent that scheduled many workers, a barrier) would otherwise decrement
+ * and fork them one by one, so the work trickles out of one worker. Instead we split the successor array in halves
+ * and fork the upper half until the range is small; idle workers steal the big halves and release them
+ * at the same time while the retiring worker works on the lowest range.
+ *
+ * Every forked BulkRelease counts as pending in the domain of the retiring task until it's done,
+ * so the domain can't become done while successors still wait to be released.
+ * @author angererc
+ *
+ */
+final class BulkRelease extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	//ranges up to this size are released by one worker
+	static int Grain = 64;
+
+	private final Task predecessor;
+	private final Task[] successors;
+	private final int from;
+	private final int to;
+	//the leaf of the domain's termination counter; only used by forked releases
+	private int arrival;
+
+	BulkRelease(Task predecessor, Task[] successors, int from, int to) {
+		this.predecessor = predecessor;
+		this.successors = successors;
+		this.from = from;
+		this.to = to;
+	}
+
+	//releases the range in the current thread, forking the upper halves; the caller must still be pending in the domain
+	void releaseAll() {
+		ScheduleDomain domain = this.predecessor.domain();
+		int lo = this.from;
+		int hi = this.to;
+		while(hi - lo > Grain) {
+			int mid = (lo + hi) >>> 1;
+			BulkRelease upper = new BulkRelease(this.predecessor, this.successors, mid, hi);
+			upper.arrival = domain.helperStarted();
+			domain.submit(upper);
+			hi = mid;
+		}
+		for(int i = lo; i < hi; i++) {
+			Task succ = this.successors[i];
+			if(this.predecessor.releaseOne(succ))
+				succ.domain().submit(succ);
+		}
+	}
+
+	@Override
+	protected void compute() {
+		try {
+			this.releaseAll();
+		} finally {
+			this.predecessor.domain().helperDone(this.arrival);
+		}
+	}
+}
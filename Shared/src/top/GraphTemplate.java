@@ -0,0 +1,301 @@
+package top;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * A task graph shape that is set up once and scheduled many times.
+ *
+ * GraphTemplate template = new GraphTemplate();
+ * int work = template.task(worker, "topTask_work", Task.class);
+ * int join = template.barrier(1);
+ * template.hb(work, join);
+ * ...
+ * Task[] instance = template.newInstance();
+ * template.schedule(instance, args); //args[work] are the arguments of topTask_work after now
+ * instance[join].hb(later);
+ *
+ * Iterative schedules (one iteration of Sor, a time step of a simulation) build the same tasks and edges over and over.
+ * Scheduling them one by one resolves every task method, checks every hb edge for cycles and increments retain counts
+ * with atomic operations although nobody else can see the new tasks yet. A template binds its task methods to their invokers,
+ * checks the edges and computes retain counts, levels and successor lists once, when it is scheduled the first time;
+ * scheduling an instance then just fills in the fresh tasks and makes now retain all of them with a single CAS.
+ *
+ * The nodes of an instance are normal tasks afterwards: now can grant them permissions, add hb edges between them and other
+ * tasks, release them early etc. A template is immutable once it was scheduled and can be used by many tasks at the same time.
+ * Every schedule() needs a new instance, though; tasks can only be scheduled once.
+ * @author angererc
+ *
+ */
+public final class GraphTemplate {
+
+	private static final class Node {
+		final Object receiver;
+		final TaskInvoker invoker;
+		//number of parameters after now
+		final int arity;
+		//0 for task nodes
+		final int participants;
+		final ArrayList<Integer> successors = new ArrayList<Integer>();
+		int predecessors;
+		int affinity = Task.NO_AFFINITY;
+		long priority = Task.NO_PRIORITY;
+
+		Node(Object receiver, TaskInvoker invoker, int arity, int participants) {
+			this.receiver = receiver;
+			this.invoker = invoker;
+			this.arity = arity;
+			this.participants = participants;
+		}
+	}
+
+	private final ArrayList<Node> nodes = new ArrayList<Node>();
+
+	//set up by freeze(); per node
+	private volatile boolean frozen;
+	private Object[] receivers;
+	private TaskInvoker[] invokers;
+	private int[] arities;
+	private int[] participants;
+	private int[][] successors;
+	private int[] predecessors;
+	private int[] depths;
+	private int[] affinities;
+	private long[] priorities;
+
+	public GraphTemplate() {
+	}
+
+	/**
+	 * adds a task node that runs receiver.taskName(now, ...) when it's scheduled
+	 * @param receiver
+	 * @param taskName name of a public topTask_ method of receiver
+	 * @param parameterTypes the parameter types after now
+	 * @return the index of the node
+	 */
+	public synchronized int task(Object receiver, String taskName, Class<?>... parameterTypes) {
+		if(! taskName.startsWith(Task.NormalTaskMethodPrefix))
+			throw new RuntimeException("template nodes must be normal tasks: " + taskName);
+		Class<?>[] types = new Class<?>[parameterTypes.length + 1];
+		types[0] = Task.class;
+		System.arraycopy(parameterTypes, 0, types, 1, parameterTypes.length);
+		Method m;
+		try {
+			m = receiver.getClass().getMethod(taskName, types);
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException("didn't find valid method for " + taskName + Arrays.toString(types) + " in " + receiver.getClass(), e);
+		}
+		return this.add(new Node(receiver, TaskInvoker.forMethod(m), parameterTypes.length, 0));
+	}
+
+	/**
+	 * adds a barrier node; see Barrier
+	 * @param participants the number of nodes or tasks that are expected to arrive
+	 * @return the index of the node
+	 */
+	public synchronized int barrier(int participants) {
+		if(participants <= 0)
+			throw new IllegalArgumentException("participants must be positive but was " + participants);
+		//the barrier object holds the arrival counter, so every instance gets its own; see schedule()
+		return this.add(new Node(null, Barrier.Invoker, 0, participants));
+	}
+
+	private int add(Node node) {
+		if(this.frozen)
+			throw new RuntimeException("Cannot add nodes to a template that has been scheduled: " + this);
+		this.nodes.add(node);
+		return this.nodes.size() - 1;
+	}
+
+	/**
+	 * adds an edge between two nodes; every instance gets the edge from its node earlier to its node later
+	 * @param earlier
+	 * @param later
+	 */
+	public synchronized void hb(int earlier, int later) {
+		if(this.frozen)
+			throw new RuntimeException("Cannot add edges to a template that has been scheduled: " + this);
+		Node e = this.nodes.get(earlier);
+		Node l = this.nodes.get(later);
+		e.successors.add(later);
+		l.predecessors++;
+	}
+
+	public synchronized void setAffinity(int node, int key) {
+		if(key < 0)
+			throw new IllegalArgumentException("affinity key must not be negative but was " + key);
+		if(this.frozen)
+			throw new RuntimeException("Cannot change a template that has been scheduled: " + this);
+		this.nodes.get(node).affinity = key;
+	}
+
+	public synchronized void setPriority(int node, long priority) {
+		if(this.frozen)
+			throw new RuntimeException("Cannot change a template that has been scheduled: " + this);
+		this.nodes.get(node).priority = priority;
+	}
+
+	public synchronized int size() {
+		return this.nodes.size();
+	}
+
+	/**
+	 * the tasks of a new instance, one per node; the index of a node is the index of its task
+	 * @return
+	 */
+	public Task[] newInstance() {
+		int size = this.frozen ? this.receivers.length : this.size();
+		Task[] instance = new Task[size];
+		for(int i = 0; i < size; i++) {
+			instance[i] = new Task();
+		}
+		return instance;
+	}
+
+	/**
+	 * schedules instance as tasks of now. args[i] are the arguments of node i after now; null if it has none.
+	 * The first call freezes the template. The template can be scheduled again and again, but each time with a new instance.
+	 * @param instance the fresh tasks of newInstance()
+	 * @param args
+	 */
+	public void schedule(Task[] instance, Object[]... args) {
+		Task now = Task.now();
+		if(now == null)
+			throw new RuntimeException("Templates can only be scheduled by a task");
+		if(! this.frozen)
+			this.freeze();
+		Object[] receivers = this.receivers;
+		int size = receivers.length;
+		if(instance.length != size)
+			throw new RuntimeException("Instance has " + instance.length + " tasks but the template has " + size + " nodes");
+		if(args.length != 0 && args.length != size)
+			throw new RuntimeException("Need arguments for " + size + " nodes but got " + args.length);
+		//check the instance and all arguments before the first task is bound; a half scheduled instance would keep now from finishing
+		IdentityHashMap<Task, Integer> seen = new IdentityHashMap<Task, Integer>(size);
+		for(int i = 0; i < size; i++) {
+			if(! instance[i].isInInit())
+				throw new RuntimeException("Task " + i + " of the instance has been scheduled already; use a new instance for every schedule(): " + instance[i]);
+			Integer other = seen.put(instance[i], i);
+			if(other != null)
+				throw new RuntimeException("Tasks " + other + " and " + i + " of the instance are the same task; use newInstance(): " + instance[i]);
+			this.checkArgs(i, args.length == 0 ? null : args[i]);
+		}
+
+		for(int i = 0; i < size; i++) {
+			Task task = instance[i];
+			TaskInvoker invoker = this.invokers[i];
+			Object receiver = receivers[i];
+			if(this.participants[i] > 0)
+				receiver = Barrier.create(now, this.participants[i]);
+			Object[] params = params(task, this.arities[i], args.length == 0 ? null : args[i]);
+			if(this.affinities[i] != Task.NO_AFFINITY)
+				task.setAffinity(this.affinities[i]);
+			if(this.priorities[i] != Task.NO_PRIORITY)
+				task.setPriority(this.priorities[i]);
+			task.scheduleAsTemplateNode(now, receiver, invoker, params, this.predecessors[i], this.depths[i]);
+		}
+		//link after all nodes are bound; the barriers of the instance must exist before their predecessors arrive
+		for(int i = 0; i < size; i++) {
+			int[] succs = this.successors[i];
+			if(succs.length > 0)
+				instance[i].linkTemplateSuccessors(instance, succs);
+		}
+		now.retainAll(instance);
+	}
+
+	private void checkArgs(int node, Object[] args) {
+		Method m = this.invokers[node].method();
+		int arity = this.arities[node];
+		int given = args == null ? 0 : args.length;
+		if(given != arity)
+			throw new RuntimeException(m + " takes " + arity + " arguments after now but got " + given);
+		Class<?>[] types = m.getParameterTypes();
+		for(int i = 0; i < given; i++) {
+			Object arg = args[i];
+			//the same rule as for resolving task methods: boxed values for primitives, null for anything else
+			if(! TaskResolver.accepts(types[i + 1], arg == null ? null : arg.getClass()))
+				throw new RuntimeException("Argument " + i + " of " + m + " must be a " + types[i + 1].getName() + " but was " + arg);
+		}
+	}
+
+	private static Object[] params(Task task, int arity, Object[] args) {
+		Object[] params = new Object[arity + 1];
+		params[0] = task;
+		if(args != null)
+			System.arraycopy(args, 0, params, 1, arity);
+		return params;
+	}
+
+	//checks that the edges have no cycle and computes the per node arrays in topological order
+	private synchronized void freeze() {
+		if(this.frozen)
+			return;
+		int size = this.nodes.size();
+		int[] pending = new int[size];
+		int[] depths = new int[size];
+		int[] order = new int[size];
+		int ordered = 0;
+		for(int i = 0; i < size; i++) {
+			pending[i] = this.nodes.get(i).predecessors;
+			if(pending[i] == 0)
+				order[ordered++] = i;
+		}
+		for(int next = 0; next < ordered; next++) {
+			int n = order[next];
+			for(int succ : this.nodes.get(n).successors) {
+				depths[succ] = Math.max(depths[succ], depths[n] + 1);
+				if(--pending[succ] == 0)
+					order[ordered++] = succ;
+			}
+		}
+		if(ordered != size)
+			throw new RuntimeException("Template has a cycle: " + this);
+
+		Object[] receivers = new Object[size];
+		TaskInvoker[] invokers = new TaskInvoker[size];
+		int[] arities = new int[size];
+		int[] participants = new int[size];
+		int[][] successors = new int[size][];
+		int[] predecessors = new int[size];
+		int[] affinities = new int[size];
+		long[] priorities = new long[size];
+		for(int i = 0; i < size; i++) {
+			Node node = this.nodes.get(i);
+			receivers[i] = node.receiver;
+			invokers[i] = node.invoker;
+			arities[i] = node.arity;
+			participants[i] = node.participants;
+			successors[i] = new int[node.successors.size()];
+			for(int j = 0; j < successors[i].length; j++) {
+				successors[i][j] = node.successors.get(j);
+			}
+			predecessors[i] = node.predecessors;
+			affinities[i] = node.affinity;
+			priorities[i] = node.priority;
+		}
+		this.receivers = receivers;
+		this.invokers = invokers;
+		this.arities = arities;
+		this.participants = participants;
+		this.successors = successors;
+		this.predecessors = predecessors;
+		this.depths = depths;
+		this.affinities = affinities;
+		this.priorities = priorities;
+		this.frozen = true;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder("GraphTemplate(");
+		for(int i = 0; i < this.nodes.size(); i++) {
+			Node node = this.nodes.get(i);
+			if(i > 0)
+				sb.append(", ");
+			sb.append(i).append(':').append(node.invoker.taskName()).append("->").append(node.successors);
+		}
+		return sb.append(')').toString();
+	}
+}
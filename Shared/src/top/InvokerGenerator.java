@@ -0,0 +1,313 @@
+package top;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+
+/**
+ * generates TaskInvoker subclasses. For a task method
+ *
+ * public void topTask_foo(Task now, int i, Bar bar)
+ *
+ * declared in class Foo we generate
+ *
+ * public void invoke(Object receiver, Object[] params) throws Exception {
+ *   ((Foo)receiver).topTask_foo((top.Task)params[0], ((java.lang.Integer)params[1]).intValue(), (Bar)params[2]);
+ * }
+ *
+ * On Java 9 and newer we write the bytecode of the invoker ourselves and define it with a MethodHandles.Lookup in Foo,
+ * so it lives in the class loader and package of Foo and goes away with Foo. That only needs the names of Foo
+ * and the parameter types, not their class files, and doesn't open any JDK internals. (A hidden class would need
+ * a lookup with full privileges, which we don't get for classes of other class loaders.)
+ * The runtime calls these methods reflectively so that it still runs on older JVMs.
+ *
+ * On older JVMs we fall back to compiling the source above with javassist and defining the class in the class loader
+ * of Foo with CtClass.toClass(). javassist has to read the class files of Foo and the parameter types then. The javassist 3.14
+ * in Shared/libs only reads class files up to Java 7 without invokedynamic: classes compiled by javac 8 are fine unless they
+ * use lambdas or method references. For class files it can't read generation fails and TaskInvoker falls back to reflection
+ * with a warning.
+ * @author angererc
+ *
+ */
+final class InvokerGenerator {
+
+	private static final AtomicInteger Counter = new AtomicInteger();
+	//one class pool per class loader; guarded by InvokerGenerator.class.
+	//the pools only reach their loader through LoaderClassPath, which holds it weakly, so they don't keep loaders alive
+	private static final WeakHashMap<ClassLoader, ClassPool> Pools = new WeakHashMap<ClassLoader, ClassPool>();
+
+	//MethodHandles.privateLookupIn() and Lookup.defineClass(); null before Java 9
+	private static final Method PrivateLookupIn;
+	private static final Method DefineClass;
+	static {
+		Method privateLookupIn = null;
+		Method defineClass = null;
+		try {
+			privateLookupIn = MethodHandles.class.getMethod("privateLookupIn", Class.class, MethodHandles.Lookup.class);
+			defineClass = MethodHandles.Lookup.class.getMethod("defineClass", byte[].class);
+		} catch (NoSuchMethodException e) {
+			//we compile invokers with javassist
+			privateLookupIn = null;
+			defineClass = null;
+		}
+		PrivateLookupIn = privateLookupIn;
+		DefineClass = defineClass;
+	}
+
+	private InvokerGenerator() {
+	}
+
+	/**
+	 * returns null if the method cannot be called directly from generated code
+	 * @param m
+	 * @return
+	 * @throws Exception
+	 */
+	static synchronized TaskInvoker generate(Method m) throws Exception {
+		Class<?> declaring = m.getDeclaringClass();
+		if(! isAccessible(declaring))
+			return null;
+		for(Class<?> paramType : m.getParameterTypes()) {
+			if(! isAccessible(paramType))
+				return null;
+		}
+
+		ClassLoader loader = declaring.getClassLoader();
+		if(loader == null)
+			return null;
+
+		Class<?> generated = DefineClass != null ? define(m) : compile(m);
+		Constructor<?> constructor = generated.getConstructor(Method.class);
+		return (TaskInvoker)constructor.newInstance(m);
+	}
+
+	private static Class<?> define(Method m) throws Exception {
+		Class<?> declaring = m.getDeclaringClass();
+		//Lookup.defineClass() only defines classes in the package of the lookup class
+		String name = declaring.getName() + TaskInvoker.GeneratedInvokerMarker + Counter.incrementAndGet() + "$" + m.getName();
+		Object lookup = PrivateLookupIn.invoke(null, declaring, MethodHandles.lookup());
+		return (Class<?>)DefineClass.invoke(lookup, invokerClassFile(name, m));
+	}
+
+	//the class file of an invoker that is equivalent to the source in the class comment
+	private static byte[] invokerClassFile(String name, Method m) throws Exception {
+		String superclass = TaskInvoker.class.getName();
+		ClassFile cf = new ClassFile(false, name, superclass);
+		cf.setMajorVersion(ClassFile.JAVA_6);
+		cf.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.FINAL | AccessFlag.SUPER | AccessFlag.SYNTHETIC);
+
+		MethodInfo constructor = new MethodInfo(cf.getConstPool(), MethodInfo.nameInit, "(Ljava/lang/reflect/Method;)V");
+		constructor.setAccessFlags(AccessFlag.PUBLIC);
+		Bytecode code = new Bytecode(cf.getConstPool(), 0, 2);
+		code.addAload(0);
+		code.addAload(1);
+		code.addInvokespecial(superclass, MethodInfo.nameInit, "(Ljava/lang/reflect/Method;)V");
+		code.addOpcode(Opcode.RETURN);
+		constructor.setCodeAttribute(code.toCodeAttribute());
+		cf.addMethod(constructor);
+
+		MethodInfo invoke = new MethodInfo(cf.getConstPool(), "invoke", "(Ljava/lang/Object;[Ljava/lang/Object;)V");
+		invoke.setAccessFlags(AccessFlag.PUBLIC);
+		code = new Bytecode(cf.getConstPool(), 0, 3);
+		Class<?> declaring = m.getDeclaringClass();
+		boolean isStatic = Modifier.isStatic(m.getModifiers());
+		if(! isStatic) {
+			code.addAload(1);
+			code.addCheckcast(declaring.getName());
+		}
+		Class<?>[] paramTypes = m.getParameterTypes();
+		for(int i = 0; i < paramTypes.length; i++) {
+			code.addAload(2);
+			code.addIconst(i);
+			code.addOpcode(Opcode.AALOAD);
+			addUnboxed(code, paramTypes[i]);
+		}
+		String descriptor = descriptorOf(m);
+		if(isStatic)
+			code.addInvokestatic(declaring.getName(), m.getName(), descriptor);
+		else if(declaring.isInterface())
+			code.addInvokeinterface(declaring.getName(), m.getName(), descriptor, 1 + slots(paramTypes));
+		else
+			code.addInvokevirtual(declaring.getName(), m.getName(), descriptor);
+		//task methods should return void; drop whatever they return
+		Class<?> returnType = m.getReturnType();
+		if(returnType == Long.TYPE || returnType == Double.TYPE)
+			code.addOpcode(Opcode.POP2);
+		else if(returnType != Void.TYPE)
+			code.addOpcode(Opcode.POP);
+		code.addOpcode(Opcode.RETURN);
+		invoke.setCodeAttribute(code.toCodeAttribute());
+		cf.addMethod(invoke);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		cf.write(out);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	//casts the Object on top of the stack to type; primitives are unboxed like in unboxed()
+	private static void addUnboxed(Bytecode code, Class<?> type) {
+		if(! type.isPrimitive()) {
+			if(type != Object.class)
+				code.addCheckcast(type.getName());
+			return;
+		}
+		Class<?> box = boxOf(type);
+		code.addCheckcast(box.getName());
+		code.addInvokevirtual(box.getName(), type.getName() + "Value", "()" + descriptorOf(type));
+	}
+
+	//the number of local variable slots that the arguments take
+	private static int slots(Class<?>[] types) {
+		int slots = 0;
+		for(Class<?> type : types) {
+			slots += type == Long.TYPE || type == Double.TYPE ? 2 : 1;
+		}
+		return slots;
+	}
+
+	private static String descriptorOf(Method m) {
+		StringBuilder sb = new StringBuilder("(");
+		for(Class<?> type : m.getParameterTypes()) {
+			sb.append(descriptorOf(type));
+		}
+		return sb.append(")").append(descriptorOf(m.getReturnType())).toString();
+	}
+
+	private static String descriptorOf(Class<?> type) {
+		if(type.isArray())
+			return type.getName().replace('.', '/');
+		if(type == Void.TYPE)
+			return "V";
+		if(! type.isPrimitive())
+			return "L" + type.getName().replace('.', '/') + ";";
+		//the descriptor of a primitive type is the last letter in the descriptor of its array type, like "[I"
+		return Array.newInstance(type, 0).getClass().getName().substring(1);
+	}
+
+	private static Class<?> boxOf(Class<?> type) {
+		if(type == Integer.TYPE)
+			return Integer.class;
+		else if(type == Long.TYPE)
+			return Long.class;
+		else if(type == Boolean.TYPE)
+			return Boolean.class;
+		else if(type == Double.TYPE)
+			return Double.class;
+		else if(type == Float.TYPE)
+			return Float.class;
+		else if(type == Short.TYPE)
+			return Short.class;
+		else if(type == Byte.TYPE)
+			return Byte.class;
+		else if(type == Character.TYPE)
+			return Character.class;
+		else
+			throw new IllegalArgumentException("unexpected primitive type " + type);
+	}
+
+	private static Class<?> compile(Method m) throws Exception {
+		Class<?> declaring = m.getDeclaringClass();
+		ClassLoader loader = declaring.getClassLoader();
+		ClassPool pool = poolFor(loader);
+		String name = TaskInvoker.GeneratedInvokerPrefix + "TaskInvoker$" + Counter.incrementAndGet() + "$" + m.getName();
+		CtClass cc = pool.makeClass(name, pool.get(TaskInvoker.class.getName()));
+
+		cc.addConstructor(CtNewConstructor.make("public " + cc.getSimpleName() + "(java.lang.reflect.Method m) { super(m); }", cc));
+		cc.addMethod(CtNewMethod.make(invokeSource(m), cc));
+
+		Class<?> generated = cc.toClass(loader, declaring.getProtectionDomain());
+		cc.detach();
+		return generated;
+	}
+
+	private static ClassPool poolFor(ClassLoader loader) {
+		ClassPool pool = Pools.get(loader);
+		if(pool == null) {
+			pool = new ClassPool(true);
+			pool.appendClassPath(new LoaderClassPath(loader));
+			pool.appendClassPath(new LoaderClassPath(TaskInvoker.class.getClassLoader()));
+			Pools.put(loader, pool);
+		}
+		return pool;
+	}
+
+	private static boolean isAccessible(Class<?> c) {
+		while(c.isArray())
+			c = c.getComponentType();
+		if(c.isPrimitive())
+			return true;
+		for(Class<?> outer = c; outer != null; outer = outer.getDeclaringClass()) {
+			if(! Modifier.isPublic(outer.getModifiers()))
+				return false;
+		}
+		return true;
+	}
+
+	private static String invokeSource(Method m) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("public void invoke(Object receiver, Object[] params) throws java.lang.Exception { ");
+		if(Modifier.isStatic(m.getModifiers())) {
+			sb.append(sourceName(m.getDeclaringClass()));
+		} else {
+			sb.append("((").append(sourceName(m.getDeclaringClass())).append(")receiver)");
+		}
+		sb.append(".").append(m.getName()).append("(");
+
+		Class<?>[] paramTypes = m.getParameterTypes();
+		for(int i = 0; i < paramTypes.length; i++) {
+			if(i > 0)
+				sb.append(", ");
+			sb.append(unboxed("params[" + i + "]", paramTypes[i]));
+		}
+		sb.append("); }");
+		return sb.toString();
+	}
+
+	private static String unboxed(String expr, Class<?> type) {
+		if(! type.isPrimitive())
+			return "(" + sourceName(type) + ")" + expr;
+		else if(type == Integer.TYPE)
+			return "((java.lang.Integer)" + expr + ").intValue()";
+		else if(type == Long.TYPE)
+			return "((java.lang.Long)" + expr + ").longValue()";
+		else if(type == Boolean.TYPE)
+			return "((java.lang.Boolean)" + expr + ").booleanValue()";
+		else if(type == Double.TYPE)
+			return "((java.lang.Double)" + expr + ").doubleValue()";
+		else if(type == Float.TYPE)
+			return "((java.lang.Float)" + expr + ").floatValue()";
+		else if(type == Short.TYPE)
+			return "((java.lang.Short)" + expr + ").shortValue()";
+		else if(type == Byte.TYPE)
+			return "((java.lang.Byte)" + expr + ").byteValue()";
+		else if(type == Character.TYPE)
+			return "((java.lang.Character)" + expr + ").charValue()";
+		else
+			throw new IllegalArgumentException("unexpected primitive type " + type);
+	}
+
+	private static String sourceName(Class<?> c) {
+		if(c.isArray())
+			return sourceName(c.getComponentType()) + "[]";
+		return c.getName();
+	}
+}
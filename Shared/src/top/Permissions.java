@@ -3,6 +3,7 @@ package top;
 import java.util.HashSet;
 import java.util.Set;
 
+import top.jfr.TopEvents;
 import top.utils.ConcurrentIdentityHashMap;
 
 /**
@@ -76,6 +77,7 @@ public abstract class Permissions<T> {
 		abstract boolean isOwnedBy(T now); //true only if key chain is a single key chain and now is in it
 		abstract boolean isImmutable();
 		abstract boolean isShared();
+		abstract int kind(); //see TopRuntime
 	}
 	
 	private class SingleKeyChain extends KeyChain {
@@ -133,6 +135,11 @@ public abstract class Permissions<T> {
 			return false;
 		}
 		
+		@Override
+		int kind() {
+			return TopRuntime.SingleKeyChain;
+		}
+		
 		@Override
 		public String toString() {
 			return "SingleKeyChain(" + task + ")";
@@ -203,6 +210,11 @@ public abstract class Permissions<T> {
 			return false;
 		}
 		
+		@Override
+		int kind() {
+			return TopRuntime.MultiKeyChain;
+		}
+		
 		@Override
 		public String toString() {
 			return "MultiKeyChain(" + tasks + ")";
@@ -250,6 +262,11 @@ public abstract class Permissions<T> {
 			return getKeyChain(target).isShared();
 		}
 		
+		@Override
+		int kind() {
+			return TopRuntime.DelegatingKeyChain;
+		}
+		
 		@Override
 		public String toString() {
 			return "DelegatingKeyChain(" + target + "->" + keyChain.get(target) + ")";
@@ -300,6 +317,11 @@ public abstract class Permissions<T> {
 			return false;
 		}
 		
+		@Override
+		int kind() {
+			return TopRuntime.ImmutableKeyChain;
+		}
+		
 		@Override
 		public String toString() {
 			return "ImmutableKey";
@@ -343,6 +365,11 @@ public abstract class Permissions<T> {
 			return true;
 		}
 		
+		@Override
+		int kind() {
+			return TopRuntime.SharedKeyChain;
+		}
+		
 		@Override
 		public String toString() {
 			return "SharedKey";
@@ -365,6 +392,8 @@ public abstract class Permissions<T> {
 	 */
 	public void checkRead(Object o) throws KeyChainException {
 		KeyChain key = getKeyChain(o);
+		if(Task.METRICS)
+			TopRuntime.permissionChecked(key.kind());
 		T now = now();
 		key.checkRead(now, o);
 	}
@@ -377,6 +406,8 @@ public abstract class Permissions<T> {
 	 */
 	public void checkWrite(Object o) throws KeyChainException {
 		KeyChain key = getKeyChain(o);
+		if(Task.METRICS)
+			TopRuntime.permissionChecked(key.kind());
 		T now = now();
 		key.checkWrite(now, o);
 	}
@@ -416,6 +447,8 @@ public abstract class Permissions<T> {
 			}
 			newKey = new DelegatingKeyChain(master);
 		} while(! keyChain.replace(slave, slaveKey, newKey));
+		if(TopEvents.RECORDING)
+			TopEvents.permission("linkKeychains", slave, now, master);
 	}
 	
 	/**
@@ -487,6 +520,8 @@ public abstract class Permissions<T> {
 			oKey = getKeyChain(o);			
 			newKey = oKey.add(now, task);
 		} while(! keyChain.replace(o, oKey, newKey));			
+		if(TopEvents.RECORDING)
+			TopEvents.permission("addTask", o, now, task);
 	}
 	
 	/**
@@ -506,6 +541,8 @@ public abstract class Permissions<T> {
 			oKey = getKeyChain(o);			
 			newKey = oKey.replace(now, task);			
 		} while(! keyChain.replace(o, oKey, newKey));
+		if(TopEvents.RECORDING)
+			TopEvents.permission("replaceNowWithTask", o, now, task);
 	}
 		
 	public boolean isImmutable(Object o) {
@@ -539,6 +576,8 @@ public abstract class Permissions<T> {
 			//okey can be a SingleKeyChain with now or already shared
 			oKey.checkWrite(now, o);
 		} while(! keyChain.replace(o, oKey, newKey));		
+		if(TopEvents.RECORDING)
+			TopEvents.permission("makeShared", o, now, null);
 	}
 	
 }
@@ -0,0 +1,29 @@
+package top;
+
+import jsr166y.RecursiveAction;
+
+/**
+ * A token that stands for one task in the priority queue of a domain. We fork a token for every task we put into
+ * the queue; the worker that runs the token (its own or a thief) runs whatever ready task has the highest priority
+ * at that moment, which is not necessarily the task the token was forked for.
+ * @author angererc
+ *
+ */
+final class PriorityDrain extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	private final ScheduleDomain domain;
+
+	PriorityDrain(ScheduleDomain domain) {
+		this.domain = domain;
+	}
+
+	@Override
+	protected void compute() {
+		Task task = this.domain.pollReady();
+		//there is a token for every queued task, so this shouldn't happen; but asserts are off in benchmark runs
+		//and a token without a task has nothing to do anyway
+		if(task != null)
+			task.compute();
+	}
+}
@@ -0,0 +1,176 @@
+package top;
+
+import java.lang.reflect.Method;
+
+import jsr166y.RecursiveAction;
+
+/**
+ * A parallel for loop that is a single node of the task graph.
+ *
+ * Task range = new Task();
+ * Range.schedule(range, 0, n, 64, new Range.Body() {
+ *     public void run(int from, int to) { ... }
+ * });
+ * perm.replaceNowWithTask(data, range);
+ * range.hb(join);
+ *
+ * Scheduling one task per index costs a Task, a method binding and an hb edge per element. A range task is scheduled,
+ * retained and released like every other task, but when it executes it splits [from, to) in halves and forks the upper
+ * halves until the chunks are at most grain indices long; idle workers steal the big halves.
+ * The range task retires when all its chunks are done, so its successors see the whole loop as done.
+ *
+ * Every chunk runs as the range task (Task.now() is the range task in all of them), so permissions are granted
+ * to the whole range at once by giving them to the range task. The chunks of a range run in parallel and
+ * the permission checks can't tell them apart; the body must only write the elements of its own chunk.
+ * @author angererc
+ *
+ */
+public final class Range {
+
+	public static interface Body {
+		//runs the loop body for the indices from (inclusive) to to (exclusive)
+		public void run(int from, int to);
+	}
+
+	//we split a range into about this many chunks per worker if the caller doesn't give a grain
+	public static int CHUNKS_PER_WORKER = 8;
+
+	private static final Method RunMethod;
+	static {
+		try {
+			RunMethod = Range.class.getMethod("topTask_run", Task.class);
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private final int from;
+	private final int to;
+	private final int grain;
+	private final Body body;
+
+	private Range(int from, int to, int grain, Body body) {
+		this.from = from;
+		this.to = to;
+		this.grain = grain;
+		this.body = body;
+	}
+
+	/**
+	 * schedules task as a range task of now that runs body for all indices in [from, to),
+	 * in chunks of at most grain indices
+	 * @param task a fresh task, like the first argument of a topTask_ method
+	 * @param from
+	 * @param to
+	 * @param grain
+	 * @param body
+	 */
+	public static void schedule(Task task, int from, int to, int grain, Body body) {
+		if(grain <= 0)
+			throw new IllegalArgumentException("grain must be positive but was " + grain);
+		if(to < from)
+			throw new IllegalArgumentException("empty range must have from == to but was [" + from + ", " + to + ")");
+		if(body == null)
+			throw new NullPointerException("body");
+		task.scheduleAsNormalTask(new Range(from, to, grain, body), TaskInvoker.forMethod(RunMethod), task);
+	}
+
+	/**
+	 * like schedule(task, from, to, grain, body) with a grain that gives each worker about CHUNKS_PER_WORKER chunks
+	 * @param task
+	 * @param from
+	 * @param to
+	 * @param body
+	 */
+	public static void schedule(Task task, int from, int to, Body body) {
+		Task now = Task.now();
+		int chunks = now == null ? CHUNKS_PER_WORKER : now.domain().scheduler().parallelism() * CHUNKS_PER_WORKER;
+		int grain = (int)(((long)to - from + chunks - 1) / chunks);
+		schedule(task, from, to, Math.max(1, grain), body);
+	}
+
+	public int from() {
+		return this.from;
+	}
+
+	public int to() {
+		return this.to;
+	}
+
+	public int grain() {
+		return this.grain;
+	}
+
+	//the task method of range tasks; runs the whole range and returns when all chunks are done
+	public void topTask_run(Task now) {
+		new Chunk(now, this.from, this.to).compute();
+	}
+
+	private final class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Task task;
+		private final int from;
+		private final int to;
+		//the chunks that we forked; we join them in reverse order
+		private Chunk next;
+
+		Chunk(Task task, int from, int to) {
+			this.task = task;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			int lo = this.from;
+			int hi = this.to;
+			Chunk forked = null;
+			//as longs; the bounds may be negative or span more than Integer.MAX_VALUE indices
+			while((long)hi - lo > Range.this.grain) {
+				int mid = (int)(lo + ((long)hi - lo) / 2);
+				Chunk upper = new Chunk(this.task, mid, hi);
+				upper.next = forked;
+				upper.fork();
+				forked = upper;
+				hi = mid;
+			}
+
+			//a stolen chunk may run in a worker that is waiting for a join inside another task
+			Task previous = Task.swapNow(this.task);
+			Throwable failure = null;
+			try {
+				Range.this.body.run(lo, hi);
+			} catch (Throwable e) {
+				failure = e;
+			}
+			//wait for all forked chunks even if one failed; they run as our task and must be done before it retires
+			for(Chunk c = forked; c != null; c = c.next) {
+				try {
+					if(c.tryUnfork()) {
+						c.compute();
+					} else {
+						c.join();
+					}
+				} catch (Throwable e) {
+					if(failure == null)
+						failure = e;
+				}
+			}
+			//joining may have run other tasks in this thread; they reset now
+			Task.swapNow(previous);
+
+			if(failure instanceof RuntimeException)
+				throw (RuntimeException)failure;
+			if(failure instanceof Error)
+				throw (Error)failure;
+			if(failure != null)
+				throw new RuntimeException(failure);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Range([" + this.from + ", " + this.to + "), grain=" + this.grain + ")";
+	}
+}
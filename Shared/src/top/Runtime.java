@@ -8,6 +8,7 @@ public final class Runtime {
 	
 	public static final String ScheduleMainTaskMethod = Runtime.class.getCanonicalName() + ".scheduleMainTask";
 	public static final String ScheduleNormalTaskMethod = Runtime.class.getCanonicalName() + ".scheduleNormalTask";
+	public static final String LinkSiteMethod = Runtime.class.getCanonicalName() + ".linkSite";
 
 	public static void scheduleMainTask(Object receiver, String taskName, Object[] args) {
 		assert taskName.startsWith(Task.MainTaskMethodPrefix);
@@ -23,6 +24,26 @@ public final class Runtime {
 		task.scheduleAsNormalTask(receiver, taskName, args);
 	}
 	
+	/*
+	 * linked schedule sites; see ScheduleSite and the linked mode of the ScheduleSiteRewriter
+	 */
+	
+	public static ScheduleSite linkSite(Class<?> caller, String declaringClass, String taskName, String descriptor) {
+		return ScheduleSite.link(caller, declaringClass, taskName, descriptor);
+	}
+	
+	public static void scheduleMainTask(ScheduleSite site, Object receiver, Object[] args) {
+		assert site.isMainTask();
+		Task task = (Task)args[0];
+		task.scheduleAsMainTask(receiver, site.invokerFor(receiver), args);
+	}
+	
+	public static void scheduleNormalTask(ScheduleSite site, Object receiver, Object[] args) {
+		assert ! site.isMainTask();
+		Task task = (Task)args[0];
+		task.scheduleAsNormalTask(receiver, site.invokerFor(receiver), args);
+	}
+	
 	// volatile array support
 	private static Unsafe getUnsafe() {
         Unsafe unsafe = null;
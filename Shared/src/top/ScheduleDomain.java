@@ -0,0 +1,254 @@
+package top;
+
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jsr166y.ForkJoinTask;
+import top.utils.CombiningTree;
+import top.utils.StripedCounter;
+
+/**
+ * The task graph of one main task. Every task belongs to the domain of the task that scheduled it,
+ * so all tasks that are (transitively) scheduled by a main task share its domain.
+ *
+ * A domain keeps track of when its graph is done and collects some statistics. Domains don't own threads;
+ * all domains of a Scheduler share its workers, so many independent main tasks can run at the same time.
+ *
+ * Termination detection must not become the hot spot of the runtime because every task that becomes ready and every
+ * task that is done updates it. We count ready-or-executing tasks in a CombiningTree: a task arrives at the leaf of the thread
+ * that releases it and departs from the same leaf when it's done. Workers mostly hit their own leaf and only
+ * touch the shared nodes when their leaf goes from 0 to 1 or back.
+ * @author angererc
+ *
+ */
+public final class ScheduleDomain {
+
+	private final Scheduler scheduler;
+	private final Task mainTask;
+
+	//tasks that are ready or executing; when the tree drops to 0 the graph is done
+	private final CombiningTree numTasksScheduled;
+	private final CountDownLatch done = new CountDownLatch(1);
+	//the first exception thrown by a task of this domain
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	private final StripedCounter tasksScheduled;
+	private final StripedCounter tasksExecuted;
+	private final StripedCounter tasksInlined;
+	private final StripedCounter tasksRunLazily;
+	//null unless Task.WORK_SPAN was on when the domain was created
+	private final WorkSpan workSpan;
+
+	//ready tasks with a priority if the scheduler uses priorities; created when the first one comes along
+	private volatile PriorityBlockingQueue<Task> readyQueue;
+	private static final Comparator<Task> HigherPriorityFirst = new Comparator<Task>() {
+		@Override
+		public int compare(Task a, Task b) {
+			long pa = a.priority();
+			long pb = b.priority();
+			return pa > pb ? -1 : (pa == pb ? 0 : 1);
+		}
+	};
+	private final long startNanos;
+	private volatile long endNanos;
+
+	ScheduleDomain(Scheduler scheduler, Task mainTask) {
+		this.scheduler = scheduler;
+		this.mainTask = mainTask;
+		//one leaf/stripe per worker and one for all other threads
+		int stripes = scheduler.parallelism() + 1;
+		this.numTasksScheduled = new CombiningTree(stripes, true);
+		this.tasksScheduled = new StripedCounter(stripes);
+		this.tasksExecuted = new StripedCounter(stripes);
+		this.tasksInlined = new StripedCounter(stripes);
+		this.tasksRunLazily = new StripedCounter(stripes);
+		this.workSpan = Task.WORK_SPAN ? new WorkSpan(stripes) : null;
+		this.tasksScheduled.increment();
+		scheduler.taskPending();
+		this.startNanos = System.nanoTime();
+	}
+
+	public Scheduler scheduler() {
+		return this.scheduler;
+	}
+
+	public Task mainTask() {
+		return this.mainTask;
+	}
+
+	/*
+	 * called by the tasks of this domain
+	 */
+
+	void taskScheduled() {
+		this.tasksScheduled.increment();
+		this.scheduler.taskPending();
+	}
+
+	//a task of this domain became ready and will be forked; must be called by the main task's thread before the main task runs
+	//or by a task of this domain that has not finished yet (see CombiningTree)
+	//returns the leaf that the task must pass to taskDone()
+	int taskReady() {
+		return this.numTasksScheduled.arrive();
+	}
+
+	//a task of this domain is done (retired or failed)
+	void taskDone(int leaf) {
+		this.tasksExecuted.increment();
+		this.scheduler.taskNotPending();
+		this.helperDone(leaf);
+	}
+
+	//helpers that work on behalf of a task of this domain, like BulkRelease, keep the domain alive just like tasks;
+	//the same rules as for taskReady() apply
+	int helperStarted() {
+		return this.numTasksScheduled.arrive();
+	}
+
+	void helperDone(int leaf) {
+		if(this.numTasksScheduled.depart(leaf)) {
+			this.endNanos = System.nanoTime();
+			//successors of a failed task never run; they must not count against the budget of the graphs that come after us
+			long dropped = this.tasksScheduled.sum() - this.tasksExecuted.sum();
+			if(dropped > 0)
+				this.scheduler.tasksDropped(dropped);
+			this.scheduler.refreshBudget();
+			this.done.countDown();
+		}
+	}
+
+	//true if task doesn't get forked but goes through the priority queue
+	boolean queues(Task task) {
+		return task.hasPriority() && this.scheduler.usesPriorities();
+	}
+
+	//true if the current worker may run task as continuation of its predecessor
+	boolean mayRunInline(Task task) {
+		if(this.queues(task))
+			return false;
+		return ! task.hasAffinity() || this.scheduler.isAffineWorker(task.affinity());
+	}
+
+	//true if the current worker may run task lazily after its creator. Unlike continuations, lazy tasks with a priority
+	//don't go through the priority queue; over the budget we rather follow the search depth first than grow the frontier
+	boolean mayRunLazily(Task task) {
+		return ! task.hasAffinity() || this.scheduler.isAffineWorker(task.affinity());
+	}
+
+	//starts a task (or helper) of this domain that became ready
+	void submit(ForkJoinTask<?> task) {
+		if(task instanceof Task && this.queues((Task)task)) {
+			//we fork a drain token instead of the task; the token runs the best ready task when it gets its turn.
+			//tokens are stolen like all other tasks so idle workers still find work
+			this.readyQueue().add((Task)task);
+			task = new PriorityDrain(this);
+		} else if(task instanceof Task && ((Task)task).hasAffinity()) {
+			this.scheduler.executeAffine((Task)task, ((Task)task).affinity());
+			return;
+		}
+		if(this.scheduler.isWorkerThread()) {
+			task.fork();
+		} else {
+			this.scheduler.execute(task);
+		}
+	}
+
+	private PriorityBlockingQueue<Task> readyQueue() {
+		PriorityBlockingQueue<Task> queue = this.readyQueue;
+		if(queue == null) {
+			synchronized(this) {
+				queue = this.readyQueue;
+				if(queue == null) {
+					queue = new PriorityBlockingQueue<Task>(64, HigherPriorityFirst);
+					this.readyQueue = queue;
+				}
+			}
+		}
+		return queue;
+	}
+
+	//the ready task with the highest priority; there is one drain token for each queued task so this never returns null for a token
+	Task pollReady() {
+		return this.readyQueue.poll();
+	}
+
+	//a retiring task runs its only ready successor itself instead of forking it
+	void taskInlined() {
+		this.tasksInlined.increment();
+	}
+
+	//a lazy task ran inline because the scheduler was over its pending budget
+	void taskRunLazily() {
+		this.tasksRunLazily.increment();
+	}
+
+	void fail(Throwable e) {
+		this.failure.compareAndSet(null, e);
+	}
+
+	//blocks until the graph is done; rethrows the first failure
+	void await() {
+		try {
+			this.done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+
+		Throwable failure = this.failure.get();
+		if(failure instanceof Error)
+			throw (Error)failure;
+		if(failure != null)
+			throw new RuntimeException(failure);
+	}
+
+	/*
+	 * statistics
+	 */
+
+	public boolean isDone() {
+		return this.done.getCount() == 0;
+	}
+
+	public Throwable failure() {
+		return this.failure.get();
+	}
+
+	//number of tasks that were scheduled in this domain, including the main task
+	public long tasksScheduled() {
+		return this.tasksScheduled.sum();
+	}
+
+	//number of tasks that executed (successfully or not)
+	public long tasksExecuted() {
+		return this.tasksExecuted.sum();
+	}
+
+	//number of tasks that ran as continuation of their predecessor without being forked
+	public long tasksInlined() {
+		return this.tasksInlined.sum();
+	}
+
+	//number of tasks that ran inline after their creator because the scheduler was over its pending budget
+	public long tasksRunLazily() {
+		return this.tasksRunLazily.sum();
+	}
+
+	//work, span and critical path of the graph; null if Task.WORK_SPAN was off when the main task started
+	public WorkSpan workSpan() {
+		return this.workSpan;
+	}
+
+	//wall clock time from the start of the main task until the graph was done; up to now if it's still running
+	public long elapsedNanos() {
+		long end = this.isDone() ? this.endNanos : System.nanoTime();
+		return end - this.startNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "ScheduleDomain(" + this.mainTask + ", scheduled=" + this.tasksScheduled() + ", executed=" + this.tasksExecuted() + ", " + (this.isDone() ? "done" : "running") + ")";
+	}
+}
@@ -0,0 +1,141 @@
+package top;
+
+import java.lang.reflect.Method;
+
+/**
+ * A linked schedule site. When the ScheduleSiteRewriter runs in linked mode it gives every topTask_ and topMainTask_
+ * call site its own static ScheduleSite field. The first execution of the site links it through
+ * Runtime.linkSite(); after that, scheduling a task at this site just binds the task to the site's invoker
+ * without looking up the task method by name.
+ *
+ * The site is linked to the method that the call statically refers to. If the receiver is of a subclass we bind the task
+ * to the invoker of the method that the subclass sees, like the name-based lookup does, because an override may be
+ * @Blocking where the overridden method is not. The site remembers the last such receiver class.
+ *
+ * Arguments are still boxed into an Object[] at the site ($args) because tasks keep their parameters as Object[];
+ * linking only saves the lookup of the task method.
+ * @author angererc
+ *
+ */
+public final class ScheduleSite {
+
+	//the invoker of the method the site was linked to
+	private final TaskInvoker invoker;
+	private final Class<?> declaring;
+	private final boolean mainTask;
+	//the invoker for the last receiver whose class is not the declaring class
+	private volatile ReceiverInvoker last;
+
+	private static final class ReceiverInvoker {
+		final Class<?> receiverClass;
+		final TaskInvoker invoker;
+		ReceiverInvoker(Class<?> receiverClass, TaskInvoker invoker) {
+			this.receiverClass = receiverClass;
+			this.invoker = invoker;
+		}
+	}
+
+	ScheduleSite(TaskInvoker invoker) {
+		this.invoker = invoker;
+		this.declaring = invoker.method().getDeclaringClass();
+		this.mainTask = invoker.taskName().startsWith(Task.MainTaskMethodPrefix);
+	}
+
+	public TaskInvoker invoker() {
+		return this.invoker;
+	}
+
+	/**
+	 * the invoker of the task method that receiver sees; the linked invoker unless receiver is of a subclass
+	 * @param receiver null for static task methods
+	 * @return
+	 */
+	public TaskInvoker invokerFor(Object receiver) {
+		if(receiver == null || receiver.getClass() == this.declaring)
+			return this.invoker;
+		Class<?> receiverClass = receiver.getClass();
+		ReceiverInvoker last = this.last;
+		if(last != null && last.receiverClass == receiverClass)
+			return last.invoker;
+
+		Method m = this.invoker.method();
+		TaskInvoker invoker;
+		try {
+			//the override, or m itself if receiverClass doesn't override it
+			invoker = TaskInvoker.forMethod(receiverClass.getMethod(m.getName(), m.getParameterTypes()));
+		} catch (NoSuchMethodException e) {
+			//m is public, so every subclass has it
+			throw new RuntimeException("didn't find " + m + " in " + receiverClass, e);
+		}
+		this.last = new ReceiverInvoker(receiverClass, invoker);
+		return invoker;
+	}
+
+	public boolean isMainTask() {
+		return this.mainTask;
+	}
+
+	/**
+	 * links a call site of the task method declaringClass.taskName with the given JVM method descriptor
+	 * @param caller the class that contains the call site; we use its class loader to find the declaring class
+	 * @param declaringClass
+	 * @param taskName
+	 * @param descriptor
+	 * @return
+	 */
+	static ScheduleSite link(Class<?> caller, String declaringClass, String taskName, String descriptor) {
+		Class<?> declaring;
+		try {
+			declaring = Class.forName(declaringClass, false, caller.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException("cannot link schedule site for " + declaringClass + "." + taskName + descriptor + " in " + caller, e);
+		}
+
+		for(Method m : declaring.getMethods()) {
+			if(m.getName().equals(taskName) && descriptor(m).equals(descriptor))
+				return new ScheduleSite(TaskInvoker.forMethod(m));
+		}
+		throw new RuntimeException("didn't find valid method for " + taskName + descriptor + " in " + declaring);
+	}
+
+	private static String descriptor(Method m) {
+		StringBuilder sb = new StringBuilder("(");
+		for(Class<?> paramType : m.getParameterTypes()) {
+			descriptor(sb, paramType);
+		}
+		sb.append(')');
+		descriptor(sb, m.getReturnType());
+		return sb.toString();
+	}
+
+	private static void descriptor(StringBuilder sb, Class<?> c) {
+		if(c.isArray()) {
+			sb.append(c.getName().replace('.', '/'));
+		} else if(c == Void.TYPE) {
+			sb.append('V');
+		} else if(c == Integer.TYPE) {
+			sb.append('I');
+		} else if(c == Long.TYPE) {
+			sb.append('J');
+		} else if(c == Boolean.TYPE) {
+			sb.append('Z');
+		} else if(c == Double.TYPE) {
+			sb.append('D');
+		} else if(c == Float.TYPE) {
+			sb.append('F');
+		} else if(c == Short.TYPE) {
+			sb.append('S');
+		} else if(c == Byte.TYPE) {
+			sb.append('B');
+		} else if(c == Character.TYPE) {
+			sb.append('C');
+		} else {
+			sb.append('L').append(c.getName().replace('.', '/')).append(';');
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ScheduleSite(" + this.invoker.method() + ")";
+	}
+}
@@ -0,0 +1,428 @@
+package top;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import jsr166y.ForkJoinPool;
+import jsr166y.ForkJoinTask;
+import top.utils.StripedCounter;
+import top.utils.TimerWheel;
+import jsr166y.ForkJoinWorkerThread;
+
+/**
+ * A long-lived runtime that owns one ForkJoinPool and runs many main tasks on it.
+ *
+ * Scheduler scheduler = new Scheduler().start();
+ * Scheduler.setDefault(scheduler);
+ * ... //every topMainTask_ call now runs on scheduler's pool
+ * scheduler.close();
+ *
+ * If there is no running default scheduler, a topMainTask_ call creates a scheduler for just this main task
+ * and closes it again when the task graph is done; that's the behavior we always had.
+ *
+ * Besides the fork join workers a scheduler has an executor for @Blocking task methods. If the JVM supports
+ * virtual threads we start one virtual thread per blocking task, otherwise we use a cached pool of daemon threads.
+ * A timer wheel thread holds back tasks that must not start before a deadline (see Task.notBefore()).
+ * @author angererc
+ *
+ */
+public final class Scheduler {
+
+	private static volatile Scheduler Default = null;
+	//whether new schedulers use task priorities; see usePriorities()
+	public static boolean PRIORITY_SCHEDULING = false;
+	//pending budget of new schedulers; see setPendingBudget()
+	public static long PENDING_BUDGET = 1 << 20;
+	//affinity delay of new schedulers; see setAffinityDelay()
+	public static long AFFINITY_DELAY_NANOS = 1000000L;
+
+	private final int parallelism;
+	private volatile ForkJoinPool pool;
+	private volatile ExecutorService blockingExecutor;
+	private volatile TimerWheel timer;
+	private volatile boolean priorities = PRIORITY_SCHEDULING;
+	private volatile long pendingBudget = PENDING_BUDGET;
+	private volatile long affinityDelayNanos = AFFINITY_DELAY_NANOS;
+	//tasks of all domains that are scheduled but not done yet
+	private final StripedCounter pending;
+	//updates of the pending counter per stripe, up or down; see taskPending()
+	private final StripedCounter pendingUpdates;
+	//refreshed every now and then; summing up the pending counter on every schedule would be too expensive
+	private volatile boolean overBudget;
+	//deque sizes of the workers for the TopRuntimeMXBean; every worker writes its own padded slot
+	private final AtomicIntegerArray queueDepths;
+	private static final int QueueDepthPadding = 16;
+	//created when the first task with an affinity comes along
+	private volatile AffinityMailboxes mailboxes;
+	//main tasks whose graphs are not done yet and whether close() waits for them; guarded by this
+	private int liveDomains;
+	private boolean closing;
+
+	public Scheduler() {
+		this(java.lang.Runtime.getRuntime().availableProcessors());
+	}
+
+	public Scheduler(int parallelism) {
+		if(parallelism <= 0)
+			throw new IllegalArgumentException("parallelism must be positive but was " + parallelism);
+		this.parallelism = parallelism;
+		this.pending = new StripedCounter(parallelism + 1);
+		this.pendingUpdates = new StripedCounter(parallelism + 1);
+		this.queueDepths = new AtomicIntegerArray(parallelism * QueueDepthPadding);
+	}
+
+	/**
+	 * the scheduler that runs topMainTask_ calls; null if main tasks get their own temporary scheduler
+	 * @return
+	 */
+	public static Scheduler getDefault() {
+		return Default;
+	}
+
+	public static void setDefault(Scheduler scheduler) {
+		Default = scheduler;
+	}
+
+	public int parallelism() {
+		return this.parallelism;
+	}
+
+	/**
+	 * if on, ready tasks with a priority (see Task.setPriority()) don't go into the deques of the workers
+	 * but into a priority queue of their domain; whenever a worker takes up one of them it runs the ready task with the highest priority.
+	 * Tasks without priority are not affected.
+	 * @param on
+	 * @return this
+	 */
+	public Scheduler usePriorities(boolean on) {
+		this.priorities = on;
+		return this;
+	}
+
+	public boolean usesPriorities() {
+		return this.priorities;
+	}
+
+	/**
+	 * the maximum number of pending (scheduled but not done) tasks of all domains. If there are more, new tasks that
+	 * only depend on their creator don't get forked but run inline right after the creator retires (lazy task creation).
+	 * That keeps the task graph of searches that spawn a task for every node from growing with the frontier.
+	 * @param budget
+	 * @return this
+	 */
+	public Scheduler setPendingBudget(long budget) {
+		if(budget <= 0)
+			throw new IllegalArgumentException("budget must be positive but was " + budget);
+		this.pendingBudget = budget;
+		this.refreshBudget();
+		return this;
+	}
+
+	public long pendingBudget() {
+		return this.pendingBudget;
+	}
+
+	/**
+	 * how long a ready task with an affinity (see Task.setAffinity()) waits for its worker before any idle worker may take it.
+	 * A worker only gets to its waiting tasks between two of its own tasks, so while it is busy with a long task
+	 * the other workers can idle for up to this long. A short delay keeps workers busy, a long one keeps tasks on their worker.
+	 * 0 makes the affinity just a hint. The default is 1ms (AFFINITY_DELAY_NANOS).
+	 * @param delay
+	 * @param unit
+	 * @return this
+	 */
+	public Scheduler setAffinityDelay(long delay, TimeUnit unit) {
+		if(delay < 0)
+			throw new IllegalArgumentException("delay must not be negative but was " + delay);
+		this.affinityDelayNanos = unit.toNanos(delay);
+		return this;
+	}
+
+	public long affinityDelayNanos() {
+		return this.affinityDelayNanos;
+	}
+
+	//approximate number of pending tasks
+	public long pendingTasks() {
+		return this.pending.sum();
+	}
+
+	boolean isOverBudget() {
+		return this.overBudget;
+	}
+
+	void taskPending() {
+		this.pending.increment();
+		this.pendingUpdated();
+	}
+
+	void taskNotPending() {
+		this.pending.add(-1);
+		this.pendingUpdated();
+	}
+
+	//tasks of a domain that is done but that never ran because a predecessor failed
+	void tasksDropped(long count) {
+		this.pending.add(-count);
+	}
+
+	//check the budget after every 64 updates of a stripe. We count the updates and not the value of the stripe:
+	//tasks are often scheduled on one stripe and done on another, so the value of a stripe can drift in one direction
+	//without ever passing a multiple of 64
+	private static final int BudgetCheckInterval = 63;
+
+	private void pendingUpdated() {
+		if((this.pendingUpdates.addAndGet(1) & BudgetCheckInterval) == 0)
+			this.refreshBudget();
+	}
+
+	//also called when a domain is done, so that a scheduler doesn't stay over budget after the graph that filled it drained
+	void refreshBudget() {
+		boolean over = this.pending.sum() > this.pendingBudget;
+		if(over != this.overBudget)
+			this.overBudget = over;
+	}
+
+	public boolean isRunning() {
+		ForkJoinPool pool = this.pool;
+		return pool != null && ! pool.isShutdown();
+	}
+
+	/**
+	 * creates the worker threads; calling start() on a running scheduler does nothing
+	 * @return this
+	 */
+	public synchronized Scheduler start() {
+		if(this.isRunning())
+			return this;
+
+		ForkJoinPool pool = new ForkJoinPool(this.parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		warmUp(pool);
+		this.blockingExecutor = newBlockingExecutor();
+		this.timer = new TimerWheel("top-timer");
+		this.pool = pool;
+		TopRuntime.schedulerStarted(this);
+		if(Task.METRICS)
+			TopRuntime.register();
+		return this;
+	}
+
+	//virtual threads if we run on a JVM that has them (Java 21+), a cached thread pool otherwise
+	private static ExecutorService newBlockingExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			//no virtual threads
+		}
+		final AtomicInteger count = new AtomicInteger();
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "top-blocking-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	//make the pool create all its workers now instead of when the first main task comes along
+	private void warmUp(ForkJoinPool pool) {
+		final CountDownLatch started = new CountDownLatch(this.parallelism);
+		for(int i = 0; i < this.parallelism; i++) {
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						started.await(1, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		try {
+			started.await(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * shuts the worker threads down after the running main tasks are done; new main tasks are rejected from now on.
+	 * Tasks that wait for a deadline (see Task.notBefore()) or run on a blocking thread still need the timer
+	 * and the blocking executor, so we only stop them when no graph is left. Must not be called by a task.
+	 */
+	public synchronized void close() {
+		if(Task.now() != null)
+			throw new IllegalStateException("a task cannot close the scheduler it runs in: " + Task.now());
+		if(this.closing) {
+			//somebody else is closing; return when they are done like we would
+			while(this.closing) {
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			return;
+		}
+		ForkJoinPool pool = this.pool;
+		if(pool == null)
+			return;
+		this.closing = true;
+		try {
+			//wait() releases our monitor, so workers can still create the mailboxes and main tasks can still finish
+			while(this.liveDomains > 0)
+				this.wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.closing = false;
+		this.notifyAll();
+		this.pool = null;
+		TopRuntime.schedulerClosed(this);
+		ExecutorService blockingExecutor = this.blockingExecutor;
+		this.blockingExecutor = null;
+		this.timer.stop();
+		this.timer = null;
+		if(Default == this)
+			Default = null;
+
+		blockingExecutor.shutdown();
+		pool.shutdown();
+		try {
+			blockingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	//records the deque size of the current worker; worker is its pool index or -1 if we are not a worker
+	void sampleQueueDepth(int worker) {
+		if(worker >= 0 && worker < this.parallelism && this.isWorkerThread())
+			this.queueDepths.lazySet(worker * QueueDepthPadding, ForkJoinTask.getQueuedTaskCount());
+	}
+
+	int queueDepth(int worker) {
+		return this.queueDepths.get(worker * QueueDepthPadding);
+	}
+
+	//tasks stolen by our workers; the pool adds up the steals of a worker when it goes idle
+	long stealCount() {
+		ForkJoinPool pool = this.pool;
+		return pool == null ? 0 : pool.getStealCount();
+	}
+
+	//true if the current thread is one of our fork join workers
+	boolean isWorkerThread() {
+		Thread t = Thread.currentThread();
+		return t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread)t).getPool() == this.pool;
+	}
+
+	//hands a task that became ready to the workers; threads that are not our workers (blocking tasks) can't fork
+	void execute(ForkJoinTask<?> task) {
+		ForkJoinPool pool = this.pool;
+		if(pool == null)
+			throw new IllegalStateException("scheduler is not running");
+		pool.execute(task);
+	}
+
+	TimerWheel timer() {
+		TimerWheel timer = this.timer;
+		if(timer == null)
+			throw new IllegalStateException("scheduler is not running");
+		return timer;
+	}
+
+	//hands a ready task with an affinity to its worker. Even if we are that worker we don't fork it, it could be stolen;
+	//we'll take it from the mailbox when we are done with the current task
+	void executeAffine(Task task, int affinity) {
+		AffinityMailboxes mailboxes = this.mailboxes();
+		int worker = mailboxes.workerFor(affinity);
+		if(this.isWorkerThread()) {
+			mailboxes.post(task, worker).fork();
+		} else {
+			this.execute(mailboxes.post(task, worker));
+		}
+	}
+
+	//true if the current thread is the worker of affinity
+	boolean isAffineWorker(int affinity) {
+		AffinityMailboxes mailboxes = this.mailboxes();
+		return mailboxes.currentWorker() == mailboxes.workerFor(affinity);
+	}
+
+	//a task from the current worker's mailbox; workers call this when they finish a task
+	Task takeAffine() {
+		AffinityMailboxes mailboxes = this.mailboxes;
+		if(mailboxes == null)
+			return null;
+		int worker = mailboxes.currentWorker();
+		return worker < 0 ? null : mailboxes.take(worker);
+	}
+
+	private AffinityMailboxes mailboxes() {
+		AffinityMailboxes mailboxes = this.mailboxes;
+		if(mailboxes == null) {
+			synchronized(this) {
+				mailboxes = this.mailboxes;
+				if(mailboxes == null) {
+					mailboxes = new AffinityMailboxes(this, this.parallelism);
+					this.mailboxes = mailboxes;
+				}
+			}
+		}
+		return mailboxes;
+	}
+
+	//runs a task of a @Blocking method on a blocking thread
+	void executeBlocking(Runnable task) {
+		ExecutorService blockingExecutor = this.blockingExecutor;
+		if(blockingExecutor == null)
+			throw new IllegalStateException("scheduler is not running");
+		blockingExecutor.execute(task);
+	}
+
+	/**
+	 * runs the main task in a new schedule domain and blocks until its whole task graph is done.
+	 * Different threads can run main tasks at the same time; their task graphs share the workers
+	 * but are otherwise independent.
+	 * @param mainTask
+	 * @return the domain of the main task
+	 */
+	ScheduleDomain runMainTask(Task mainTask) {
+		if(Thread.currentThread() instanceof ForkJoinWorkerThread)
+			throw new IllegalStateException("main tasks cannot be started from inside a task");
+
+		ForkJoinPool pool;
+		synchronized(this) {
+			pool = this.pool;
+			if(pool == null || this.closing)
+				throw new IllegalStateException("scheduler is not running");
+			this.liveDomains++;
+		}
+		try {
+			ScheduleDomain domain = new ScheduleDomain(this, mainTask);
+			mainTask.runAsMainTask(domain, pool);
+			return domain;
+		} finally {
+			synchronized(this) {
+				this.liveDomains--;
+				this.notifyAll();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Scheduler(parallelism=" + this.parallelism + ", " + (this.isRunning() ? "running" : "stopped") + ")";
+	}
+}
@@ -1,25 +1,46 @@
 package top;
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import jsr166y.ForkJoinPool;
 import jsr166y.RecursiveAction;
+import top.jfr.TopEvents;
+import top.trace.TraceRecorder;
+import top.utils.StripedCounter;
 
 public final class Task extends RecursiveAction {
 	
 	public static boolean DEBUG = false;
 	public static boolean CHECK_WELLFORMEDNESS = true;
+	//bind tasks to generated invokers instead of calling Method.invoke(); see TaskInvoker
+	public static boolean GENERATE_INVOKERS = true;
+	//if a retiring task makes exactly one successor ready, run it right away in the same worker instead of forking it
+	public static boolean INLINE_CONTINUATIONS = true;
+	//max number of tasks that one compute() runs back to back before it forks the next continuation
+	public static int MAX_INLINE_RUN = 64;
+	//a retiring task with at least this many successors releases them in parallel; see BulkRelease
+	public static int BULK_RELEASE_THRESHOLD = 256;
+	//record task life cycle events; turned on and off by TraceRecorder.start() and stop()
+	public static boolean TRACE = false;
+	//compute work, span and critical path of new domains; see WorkSpan
+	public static boolean WORK_SPAN = Boolean.getBoolean("top.workspan");
+	//update the counters of the TopRuntimeMXBean; see TopRuntime
+	//volatile because the TopRuntimeMXBean turns it on and off while workers run
+	public static volatile boolean METRICS = Boolean.getBoolean("top.metrics");
+	
+	//priority of tasks that don't have one; they are forked as usual
+	public static final long NO_PRIORITY = Long.MIN_VALUE;
+	//affinity of tasks that can run on any worker
+	public static final int NO_AFFINITY = -1;
 	
 	public static final String MainTaskMethodPrefix = "topMainTask_";
 	public static final String NormalTaskMethodPrefix = "topTask_";
 	
-	//we use our own thread pool that shuts down automatically once the worklist is empty
-	static ForkJoinPool Pool = null; //Executors.newCachedThreadPool();
-	static AtomicInteger numTasksScheduled;
 	
 	//the task that is currently executing in this thread
 	private static final ThreadLocal<Task> Now = new ThreadLocal<Task>();
@@ -28,13 +49,39 @@ public final class Task extends RecursiveAction {
 	 * 
 	 */
 	private Object receiver;
-	private Method method;
+	private TaskInvoker invoker;
 	private Object[] params;
+	//the task graph this task belongs to; inherited from the task that scheduled this
+	private ScheduleDomain domain;
+	//the task that scheduled this as long as its edge to this is neither released early nor gone because this started.
+	//answers the most common well-formedness query, now.isOrderedBefore(later) for a later that now scheduled, without a search
+	private Task creator;
+	//the leaf of the domain's termination counter this task arrived at when it became ready
+	private int arrival;
 	private volatile Object result;
+	//higher runs first if the scheduler uses priorities; see setPriority()
+	private long priority = NO_PRIORITY;
+	//tasks with the same affinity prefer the same worker; see setAffinity()
+	private int affinity = NO_AFFINITY;
+	//the id of this task in traces; 0 until the first traced event
+	private int traceId;
+	//scheduled while the scheduler was over its pending budget: if this only depends on its creator
+	//the creator runs it inline when it retires instead of forking it; see Scheduler.setPendingBudget()
+	private boolean lazy;
+	//the pool index of the worker that executed this; -1 if not executed yet or not executed by a worker.
+	//a short so that it shares a word with lazy
+	private short worker = -1;
 	
 	public static final Task now() {
 		return Now.get();
 	}
+	
+	//makes task the current task of this thread and returns the previous one; for helpers that run on behalf of a task, see Range
+	static Task swapNow(Task task) {
+		Task previous = Now.get();
+		Now.set(task);
+		return previous;
+	}
 	/*
 	 * States: 
 	 * during init: retainCount == 0
@@ -53,15 +100,66 @@ public final class Task extends RecursiveAction {
 	 * retained tasks are released after this has retired; so this is the point when added hb edges don't have any retain effect
 	 * 
 	 *  invariant:
-	 *  the retain count is equal to the number of occurrences of this in other task's retainedTasks lists together
+	 *  the retain count is equal to the number of occurrences of this in the successor lists of tasks that haven't released their successors yet
 	 */
 	/** retain count; once retain count drops to 0 the activation can start */
 	private static final int DURING_INIT = -99;
 	private static final int EXECUTING = -42; //flag to indicate that this activation has been executed
 	private static final int RETIRED = -84; //flag to indicate that this activation has been executed
 	
-	private final AtomicInteger retainCount = new AtomicInteger(DURING_INIT);
-	private ArrayList<Task> retainedTasks; //somebody called this.hb(other) so we retain other
+	//a plain field updated through a field updater instead of an AtomicInteger; saves an object per task
+	private volatile int retainCount = DURING_INIT;
+	private static final AtomicIntegerFieldUpdater<Task> RetainCountUpdater = AtomicIntegerFieldUpdater.newUpdater(Task.class, "retainCount");
+	
+	/*
+	 * somebody called this.hb(other) so we retain other.
+	 * The successors form a lock-free stack that is only ever pushed to; when this retires it pushes a close marker
+	 * (a node without task) and after that nobody can add successors anymore. Readers can walk the stack at any time
+	 * without locking because nodes never change once they are pushed, except for the released flag (see release()).
+	 * Most tasks have a single successor, so the first successor is stored inline: successors is null, a Task
+	 * (the only successor) or the top Successor node of the stack.
+	 */
+	private static final class Successor {
+		final Task task;
+		final Successor next;
+		//the edge was released early; only the owner of the list sets this, while it executes
+		volatile boolean released;
+		Successor(Task task, Successor next) {
+			this.task = task;
+			this.next = next;
+		}
+	}
+	//an empty, closed successor list; closing swaps it in so that a retired task doesn't keep its successors alive
+	private static final Successor Closed = new Successor(null, null);
+	private volatile Object successors;
+	private static final AtomicReferenceFieldUpdater<Task, Object> SuccessorsUpdater = AtomicReferenceFieldUpdater.newUpdater(Task.class, Object.class, "successors");
+	
+	//iterating over the successors: node is a Task or a Successor
+	private static Task taskOf(Object node) {
+		return node instanceof Task ? (Task)node : ((Successor)node).task;
+	}
+	
+	private static Object nextOf(Object node) {
+		return node instanceof Task ? null : ((Successor)node).next;
+	}
+	
+	private static boolean isReleased(Object node) {
+		return node instanceof Successor && ((Successor)node).released;
+	}
+	
+	/*
+	 * reachability labels for the well-formedness checks:
+	 * if this->other then this.level < other.level once hb() returned. Levels only grow; when a new edge would violate
+	 * the invariant we raise the level of the successor and propagate the raise to its successors.
+	 * A new task starts at now.level + 1, one level above the task that schedules it.
+	 * isOrderedBefore(later) therefore only has to look at tasks with a level below later's level
+	 * and can stop right away if this.level >= later.level. On the graphs our benchmarks produce (fork/join, barriers, chains)
+	 * the raise stays local: in a fan-in of n forks into a join only the first fork.hb(join) raises the join, and both checks
+	 * of every hb() are O(1), join.isOrderedBefore(fork) by the label and now.isOrderedBefore(join) by the join's creator.
+	 * The same holds for fan-outs. Neither the labels nor the search take locks; they read the lock-free successor lists.
+	 */
+	private volatile int level;
+	private static final AtomicIntegerFieldUpdater<Task> LevelUpdater = AtomicIntegerFieldUpdater.newUpdater(Task.class, "level");
 	
 	public Task() {
 		
@@ -70,91 +168,159 @@ public final class Task extends RecursiveAction {
 	//called by xsched.Runtime.schedule()
 	//args contain this at position 0
 	void scheduleAsNormalTask(Object receiver, String taskName, Object... params) {
-		init_unsynchronized(receiver, taskName, params);
+		//the resolver caches the method per receiver class, task name and argument classes
+		scheduleAsNormalTask(receiver, TaskResolver.resolve(receiver, taskName, params), params);
+	}
+	
+	//called by xsched.Runtime.schedule() for linked schedule sites that already know their invoker
+	void scheduleAsNormalTask(Object receiver, TaskInvoker invoker, Object... params) {
+		init_unsynchronized(receiver, invoker, params);
 		Task now = Now.get();
 		assert(now != null) : "no 'now' task found! Maybe you didn't start a root topMainTask_ ?";
-		now.retain_unsynchronized(this);
+		this.joinDomainOf(now, invoker);
+		this.lazy = this.domain.scheduler().isOverBudget();
+		//this is fresh and has no successors yet so we don't have to propagate the level
+		this.level = now.level + 1;
+		//now is executing so its successor list can't be closed
+		now.retain(this);
+		this.creator = now;
+		if(TRACE)
+			TraceRecorder.record(TraceRecorder.SCHEDULE, this.traceId(), now.traceId(), invoker.traceId());
 		
 		//if(DEBUG)
 			//System.out.println("scheduled normal task " + this);
 	}
 	
+	private void joinDomainOf(Task now, TaskInvoker invoker) {
+		this.domain = now.domain;
+		this.domain.taskScheduled();
+		WorkSpan workSpan = this.domain.workSpan();
+		if(workSpan != null)
+			workSpan.scheduled(this, invoker);
+		if(METRICS)
+			TopRuntime.taskScheduled();
+	}
+	
+	//called by GraphTemplate.schedule() for every node of a new instance before any of them is linked or retained by now.
+	//predecessors is the number of edges from other nodes of the instance into this, depth the length of the longest
+	//path from a source of the template to this. Nobody but now sees the instance yet, so we don't need atomics
+	void scheduleAsTemplateNode(Task now, Object receiver, TaskInvoker invoker, Object[] params, int predecessors, int depth) {
+		init_unsynchronized(receiver, invoker, params);
+		this.joinDomainOf(now, invoker);
+		this.lazy = predecessors == 0 && this.domain.scheduler().isOverBudget();
+		//the template has no cycles and the longest path decides the depth, so the levels of the instance are ordered
+		this.level = now.level + 1 + depth;
+		//now retains the whole instance right after binding it
+		this.creator = now;
+		if(receiver instanceof Barrier) {
+			//barriers count their edges in their tree; the other nodes arrive there when they are linked
+			this.addRetain(now, true);
+		} else {
+			//the edge from now and the edges from the other nodes
+			this.retainCount = 1 + predecessors;
+		}
+		if(TRACE)
+			TraceRecorder.record(TraceRecorder.SCHEDULE, this.traceId(), now.traceId(), invoker.traceId());
+	}
+	
+	//sets the successor list of a fresh template node to the nodes succs of instance; their retain counts already include the edges
+	void linkTemplateSuccessors(Task[] instance, int[] succs) {
+		Object head = null;
+		for(int i = succs.length - 1; i >= 0; i--) {
+			Task succ = instance[succs[i]];
+			if(succ.receiver instanceof Barrier)
+				((Barrier)succ.receiver).arrive(this);
+			if(head == null) {
+				head = succ;
+			} else if(head instanceof Task) {
+				head = new Successor(succ, new Successor((Task)head, null));
+			} else {
+				head = new Successor(succ, (Successor)head);
+			}
+			if(METRICS)
+				TopRuntime.hbEdgeAdded();
+			if(TopEvents.RECORDING)
+				TopEvents.hbEdge(this.taskName(), succ.taskName());
+			if(TRACE)
+				TraceRecorder.record(TraceRecorder.HB, this.traceId(), succ.traceId(), -1);
+		}
+		this.successors = head;
+	}
+	
+	//pushes all tasks of a template instance onto our successor list with a single CAS; we are executing so the list is open
+	void retainAll(Task[] tasks) {
+		while(true) {
+			Object head = this.successors;
+			Successor chain = head == null ? null : (head instanceof Task ? new Successor((Task)head, null) : (Successor)head);
+			for(Task task : tasks) {
+				chain = new Successor(task, chain);
+			}
+			if(SuccessorsUpdater.compareAndSet(this, head, chain))
+				return;
+		}
+	}
+	
 	void scheduleAsMainTask(Object receiver, String taskName, Object... params) {
-		init_unsynchronized(receiver, taskName, params);
+		scheduleAsMainTask(receiver, TaskResolver.resolve(receiver, taskName, params), params);
+	}
+	
+	void scheduleAsMainTask(Object receiver, TaskInvoker invoker, Object... params) {
+		init_unsynchronized(receiver, invoker, params);
 		assert(Now.get() == null) : "main task must be the first task to be scheduled";			
-		try {
-			this.retainCount.set(0);
-			if(DEBUG)
-				System.out.println("scheduled main task " + this);
-			//Phaser = new Phaser();
-			numTasksScheduled = new AtomicInteger(1);
-			
-			Pool = new ForkJoinPool(java.lang.Runtime.getRuntime().availableProcessors(), ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
-			
-			Pool.invoke(this);
-						
-			Pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
-			Pool = null;			
-			
-		} catch (Exception e) {
-			Pool.shutdownNow();
-			throw new RuntimeException(e);
+		
+		Scheduler scheduler = Scheduler.getDefault();
+		if(scheduler != null && scheduler.isRunning()) {
+			scheduler.runMainTask(this);
+		} else {
+			//no long-lived scheduler; use a temporary one just for this main task
+			scheduler = new Scheduler().start();
+			try {
+				scheduler.runMainTask(this);
+			} finally {
+				scheduler.close();
+			}
 		}
 	}
 	
-	private void init_unsynchronized(Object receiver, String taskName, Object... params) {
-		assert params[0] == this;
-		if(this.receiver != null) {
-			throw new RuntimeException("Can only call init once!");
+	//called by the scheduler; runs this as main task of domain on pool and waits until the task graph is done
+	void runAsMainTask(ScheduleDomain domain, ForkJoinPool pool) {
+		this.domain = domain;
+		this.arrival = domain.taskReady();
+		this.retainCount = 0;
+		if(domain.workSpan() != null)
+			domain.workSpan().scheduled(this, this.invoker);
+		if(METRICS) {
+			TopRuntime.taskScheduled();
+			TopRuntime.mainTaskReady();
 		}
-		this.receiver = receiver;
-		this.params = params;
-		
-		//splice in "this" as the first parameter
-		int len = params.length;
-		Class<?>[] paramTypes = new Class<?>[len];
-		
-		for(int i = 0; i < len; i++) {			
-			paramTypes[i] = params[i].getClass();
+		if(DEBUG)
+			System.out.println("scheduled main task " + this);
+		if(TRACE) {
+			TraceRecorder.record(TraceRecorder.SCHEDULE, this.traceId(), 0, this.invoker.traceId());
+			TraceRecorder.record(TraceRecorder.READY, this.traceId(), 0, this.invoker.traceId());
 		}
 		
-		Method found = null;
-		//find the corresponding method
 		try {
-			Method[] methods = receiver.getClass().getMethods();
-			//iterate all methods
-			findMethod: for(Method m : methods) {
-				//name must be equal
-				if(m.getName().equals(taskName)) {
-					Class<?>[] methodParams = m.getParameterTypes();
-					//param lengths must be equal
-					if(methodParams.length == paramTypes.length) {
-						//check that all param types are OK
-						for(int i = 0; i < methodParams.length; i++) {
-							Class<?> methodParam = methodParams[i];
-							Class<?> myParam = paramTypes[i];
-							if( ! methodParam.isAssignableFrom(myParam)) {
-								//no, continue with a different method
-								continue findMethod;
-							}
-						}
-						//params are OK, keep the method and finish
-						found = m;
-						break findMethod;
-					}
-				}
-			}
-			
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}	
+			pool.invoke(this);
+		} catch (Throwable e) {
+			//compute() already recorded the failure in the domain
+		}
 		
-		if(found == null) {
-			throw new RuntimeException("didn't find valid method for " + taskName + " in " + receiver);
+		//wait for the rest of the graph even if the main task failed; tasks that are already running finish their work
+		domain.await();
+	}
+	
+	private void init_unsynchronized(Object receiver, TaskInvoker invoker, Object... params) {
+		assert params[0] == this;
+		//the receiver is dropped at retirement but the invoker stays
+		if(this.invoker != null) {
+			throw new RuntimeException("Can only call init once!");
 		}
-		this.method = found;
+		this.receiver = receiver;
+		this.params = params;
+		this.invoker = invoker;
 	}
-	//null during initialization
+	//null during initialization and after retirement
 	public Object receiver() {
 		//may see incomplete state during init; force null everywhere
 		if(this.isInInit())
@@ -168,9 +334,10 @@ public final class Task extends RecursiveAction {
 		if(this.isInInit())
 			return null;
 		
-		return this.method.getName();
+		return this.invoker.taskName();
 	}
 
+	//null during initialization and after retirement
 	public Object[] parameters() {
 		//may see incomplete state during init; force null everywhere
 		if(this.isInInit())
@@ -179,6 +346,67 @@ public final class Task extends RecursiveAction {
 		return this.params;
 	}
 	
+	//null during initialization
+	public ScheduleDomain domain() {
+		if(this.isInInit())
+			return null;
+		
+		return this.domain;
+	}
+	
+	public long priority() {
+		return this.priority;
+	}
+	
+	public boolean hasPriority() {
+		return this.priority != NO_PRIORITY;
+	}
+	
+	/**
+	 * sets the priority of this task. If the scheduler uses priorities (see Scheduler.usePriorities()) ready tasks with a higher
+	 * priority run before ready tasks with a lower priority; otherwise the priority is ignored.
+	 * Must be set before this becomes ready, i.e., when it's scheduled or by a task that happens before this.
+	 * @param priority
+	 */
+	public void setPriority(long priority) {
+		if(! this.isInInit() && ! this.isInFuture())
+			throw new RuntimeException("Can only set the priority of a task that is in the future: " + this);
+		this.priority = priority;
+	}
+	
+	public int affinity() {
+		return this.affinity;
+	}
+	
+	public boolean hasAffinity() {
+		return this.affinity != NO_AFFINITY;
+	}
+	
+	/**
+	 * asks the scheduler to run this on the worker that the key hashes to, e.g., to keep tasks that work on the same data
+	 * in the same cache. It's only a hint: other workers take the task if its worker is behind.
+	 * Must be set before this becomes ready, like the priority.
+	 * @param key a non-negative number
+	 */
+	public void setAffinity(int key) {
+		if(key < 0)
+			throw new IllegalArgumentException("affinity key must not be negative but was " + key);
+		if(! this.isInInit() && ! this.isInFuture())
+			throw new RuntimeException("Can only set the affinity of a task that is in the future: " + this);
+		this.affinity = key;
+	}
+	
+	/**
+	 * asks the scheduler to run this on the same worker as other: other's affinity if it has one,
+	 * else the worker that executed other. Does nothing if other has neither.
+	 * @param other
+	 */
+	public void setAffinity(Task other) {
+		int key = other.hasAffinity() ? other.affinity : other.worker;
+		if(key >= 0)
+			this.setAffinity(key);
+	}
+	
 	public Object result() {
 		return result;
 	}
@@ -192,63 +420,177 @@ public final class Task extends RecursiveAction {
 	}
 
 	public boolean isAboutToExecute() {
-		return this.retainCount.get() == 0;
+		return this.retainCount == 0;
 	}
 
 	public boolean isExecuting() {
-		return this.retainCount.get() == EXECUTING;
+		return this.retainCount == EXECUTING;
 	}
 
 	public boolean isInInit() {
-		return this.retainCount.get() == DURING_INIT;
+		return this.retainCount == DURING_INIT;
 	}
 	
 	public boolean isInFuture() {
-		return this.retainCount.get() > 0;
+		return this.retainCount > 0;
 	}
 	
 	public boolean hasRetired() {
-		return this.retainCount.get() == RETIRED;
+		return this.retainCount == RETIRED;
 	}
 
-	//called by any task; synchronize to protect our array list
-	public synchronized boolean isOrderedBefore(Task later) {
-		if(this.retainedTasks == null) {
+	//called by any task; iterative search over the tasks we retain that prunes tasks that cannot reach later because of their level.
+	//the query hb() makes for every edge, now.isOrderedBefore(later) where now scheduled later, is answered by later's creator
+	//in O(1); that covers fan-ins (join scheduled first, then n forks each calling fork.hb(join)) and fan-outs alike.
+	//Otherwise every task we enter is scanned for later before we look at its other successors, so the order of the
+	//successor stack doesn't matter and a direct successor costs one scan of our list without allocating anything.
+	//We only allocate the search stack if later isn't a direct successor and the visited set only if we go deeper than that
+	public boolean isOrderedBefore(Task later) {
+		int targetLevel = later.level;
+		if(this.level >= targetLevel)
 			return false;
-		} else if(this.retainedTasks.contains(later)) {
+		//the creator's edge lasts until this releases later early or retires and closes its list
+		if(later.creator == this && ! isClosed(this.successors))
 			return true;
-		} else {
-			for(Task succ : this.retainedTasks) {
-				if(succ.isOrderedBefore(later)) {
-					return true;
+		
+		ArrayList<Task> stack = null;
+		IdentityHashMap<Task, Boolean> visited = null;
+		Task current = this;
+		while(true) {
+			if(hasDirectSuccessor(current, later))
+				return true;
+			for(Object node = current.successors; node != null; node = nextOf(node)) {
+				Task succ = taskOf(node);
+				if(succ == null || isReleased(node))
+					continue; //close marker or an edge that doesn't order anything anymore
+				if(succ.level < targetLevel && (visited == null || visited.put(succ, Boolean.TRUE) == null)) {
+					if(stack == null)
+						stack = new ArrayList<Task>();
+					stack.add(succ);
 				}
 			}
-			return false;
+			if(stack == null || stack.isEmpty())
+				return false;
+			if(visited == null) {
+				//we go deeper than the direct successors of this; from now on every task is entered only once
+				visited = new IdentityHashMap<Task, Boolean>();
+				for(Task t : stack) {
+					visited.put(t, Boolean.TRUE);
+				}
+			}
+			current = stack.remove(stack.size() - 1);
 		}
 	}
-
-	private void retain_unsynchronized(Task later) {
+	
+	private static boolean isClosed(Object head) {
+		return head instanceof Successor && ((Successor)head).task == null;
+	}
+	
+	private static boolean hasDirectSuccessor(Task task, Task later) {
+		for(Object node = task.successors; node != null; node = nextOf(node)) {
+			if(taskOf(node) == later && ! isReleased(node))
+				return true;
+		}
+		return false;
+	}
+	
+	//makes sure that later.level > this.level and pushes the change through later's successors
+	private void raiseLevelOf(Task later) {
+		//pairs of (predecessor, successor) whose levels may violate the invariant
+		ArrayList<Task> work = null;
+		Task pred = this;
+		Task succ = later;
+		while(true) {
+			int minLevel = pred.level + 1;
+			int old = succ.level;
+			if(old < minLevel) {
+				if(! LevelUpdater.compareAndSet(succ, old, minLevel))
+					continue; //somebody else changed the level, retry
+				
+				for(Object node = succ.successors; node != null; node = nextOf(node)) {
+					Task next = taskOf(node);
+					if(next == null)
+						continue; //close marker
+					if(work == null)
+						work = new ArrayList<Task>();
+					work.add(succ);
+					work.add(next);
+				}
+			}
+			
+			if(work == null || work.isEmpty())
+				return;
+			succ = work.remove(work.size() - 1);
+			pred = work.remove(work.size() - 1);
+		}
+	}
+	
+	//pushes later onto our successor list; returns false if this already retired and closed the list
+	private boolean retain(Task later) {
 		//we know that other happens after now and therefore it's retain count is > 0 and will remain so until we're done;
-		//we just have to make sure that our increment to later isn't swallowed, therefore we use an atomic integer
-		if(this.retainedTasks==null)
-			this.retainedTasks = new ArrayList<Task>();
-		 
-		this.retainedTasks.add(later);
+		//we just have to make sure that our increment to later isn't swallowed, therefore we use an atomic integer.
+		//we increment before the push so that whoever releases our successors always sees our increment
+		boolean fresh = later.retainCount == DURING_INIT;
+		later.addRetain(this, fresh);
 		
-		if(later.retainCount.get() == DURING_INIT) {
-			later.retainCount.set(1);
-		} else {
-			later.retainCount.incrementAndGet();
+		while(true) {
+			Object head = this.successors;
+			if(isClosed(head)) {
+				//this retired; undo the increment. now happens before later so somebody else still retains later
+				int count = later.dropRetain(this);
+				if(fresh) {
+					later.retainCount = DURING_INIT;
+				} else {
+					assert count > 0 : "retain count of " + later + " dropped to 0 while undoing a retain";
+				}
+				return false;
+			}
+			Object pushed;
+			if(head == null) {
+				pushed = later; //first successor; no node
+			} else if(head instanceof Task) {
+				pushed = new Successor(later, new Successor((Task)head, null));
+			} else {
+				pushed = new Successor(later, (Successor)head);
+			}
+			if(SuccessorsUpdater.compareAndSet(this, head, pushed)) {
+				if(DEBUG)
+					System.out.println(this + " retains " + later);
+				return true;
+			}
 		}
-		
-		if(DEBUG)
-			System.out.println(this + " retains " + later);
 	}
 		
+	//counts an edge from pred into this. Barriers count their edges in a combining tree and keep the retain count at 1
+	//until the tree is empty; see Barrier
+	private void addRetain(Task pred, boolean fresh) {
+		Object receiver = this.receiver;
+		if(receiver instanceof Barrier)
+			((Barrier)receiver).arrive(pred);
+		if(fresh) {
+			//only the creator sees a task during init
+			this.retainCount = 1;
+		} else if(! (receiver instanceof Barrier)) {
+			RetainCountUpdater.incrementAndGet(this);
+		}
+	}
+	
+	//removes an edge from pred into this; returns the new retain count
+	private int dropRetain(Task pred) {
+		Object receiver = this.receiver;
+		if(receiver instanceof Barrier) {
+			if(! ((Barrier)receiver).depart(pred))
+				return 1;
+			this.retainCount = 0;
+			return 0;
+		}
+		return RetainCountUpdater.decrementAndGet(this);
+	}
+	
 	//called from any task. we know that (when well formed) later is in the future
 	//but we do'nt know much about "this"
-	//synchronize so to be sure that this task doesn't retire while we are retaining
-	public synchronized void hb(Task later) {			
+	//neither the checks nor adding the edge take any locks; if this retires concurrently the edge simply has no effect
+	public void hb(Task later) {			
 		if(CHECK_WELLFORMEDNESS && later.isOrderedBefore(this))
 			throw new RuntimeException("HB edge would result in cycle: " + this + "->" + later);
 		
@@ -258,71 +600,409 @@ public final class Task extends RecursiveAction {
 		if(CHECK_WELLFORMEDNESS)
 			assert(later.isInFuture()) : "rhs of happens-before must be in future";
 		
-		if(!this.hasRetired()) {			
-			this.retain_unsynchronized(later);
+		//later depends on more than its creator now; it has to go through the scheduler like any other task
+		later.lazy = false;
+		if(this.retain(later)) {
+			this.raiseLevelOf(later);
+			if(METRICS)
+				TopRuntime.hbEdgeAdded();
+			if(TopEvents.RECORDING)
+				TopEvents.hbEdge(this.taskName(), later.taskName());
+			if(TRACE)
+				TraceRecorder.record(TraceRecorder.HB, this.traceId(), later.traceId(), -1);
+		}
+	}
+	
+	//assigned lazily so that tasks that were scheduled before tracing started get an id, too;
+	//only the creator and the threads that order this write it and a lost race just renames the task
+	private int traceId() {
+		int id = this.traceId;
+		if(id == 0) {
+			id = TraceRecorder.nextTaskId();
+			this.traceId = id;
+		}
+		return id;
+	}
+	
+	//closes our successor list and returns what it contained: null, the only successor or the top of the stack
+	private Object closeSuccessors() {
+		Object head;
+		Successor closed;
+		do {
+			head = this.successors;
+			//in debug mode we keep the successors for inspection
+			closed = DEBUG && head != null ? new Successor(null, head instanceof Task ? new Successor((Task)head, null) : (Successor)head) : Closed;
+		} while(! SuccessorsUpdater.compareAndSet(this, head, closed));
+		return head;
+	}
+	
+	//the number of successors in a list returned by closeSuccessors(), without the ones we released early
+	private static int countSuccessors(Object head) {
+		int count = 0;
+		for(Object node = head; node != null; node = nextOf(node)) {
+			if(! isReleased(node))
+				count++;
 		}
+		return count;
 	}
 	
-	private void releaseRetained_unsynced() {
-		if(this.retainedTasks == null)
+	//returns the successors of the stack top in the order they were added, without the ones we released early
+	private static Task[] toArray(Successor top) {
+		int size = 0;
+		for(Successor node = top; node != null; node = node.next) {
+			if(! node.released)
+				size++;
+		}
+		//fill from the back so that we release successors in FIFO order, as we always did
+		Task[] succs = new Task[size];
+		for(Successor node = top; node != null; node = node.next) {
+			if(! node.released)
+				succs[--size] = node.task;
+		}
+		return succs;
+	}
+	
+	/**
+	 * releases our edge to child before we retire, so child can start as soon as its other predecessors are done;
+	 * normally the tasks that now schedules wait until now retires. Call it once child is fully set up
+	 * (parameters, hb edges, permissions), for example at the end of each iteration of a loop that spawns children.
+	 * After the release now no longer happens before child, so now can't add hb edges into child anymore and child can't
+	 * be delayed or get a priority or affinity.
+	 * Must be called by now on one of its own successors; if now->child was added several times this releases one of the edges.
+	 * While the scheduler is over its pending budget a lazy child (see Scheduler.setPendingBudget()) is not released
+	 * but stays retained, so that now runs it inline when it retires instead of adding it to the frontier.
+	 * @param child
+	 */
+	public void release(Task child) {
+		Task now = Now.get();
+		if(now != this)
+			throw new RuntimeException("Only now can release its successors early: " + now + ": " + this + "->" + child);
+		if(child.isInInit())
+			throw new RuntimeException("Task must be scheduled before it can be released: " + child);
+		if(child.lazy && child.domain.scheduler().isOverBudget()) {
+			if(! this.retainsUnreleased(child))
+				throw new RuntimeException(this + " does not retain " + child);
 			return;
+		}
+		//before the flag, so that a concurrent query that sees the creator also sees the edge
+		if(child.creator == this)
+			child.creator = null;
+		if(! this.markReleased(child))
+			throw new RuntimeException(this + " does not retain " + child);
+		if(TRACE)
+			TraceRecorder.record(TraceRecorder.RELEASE, child.traceId(), this.traceId(), child.invoker.traceId());
+		
+		if(this.releaseOne(child))
+			child.domain.submit(child);
+	}
+	
+	//flags one of our edges to child as released so that we skip it when we retire; false if we don't retain child
+	private boolean markReleased(Task child) {
+		while(true) {
+			Object head = this.successors;
+			if(head == child) {
+				//the inline slot has no flag; replace it with a node. others may push concurrently, so CAS
+				Successor node = new Successor(child, null);
+				node.released = true;
+				if(SuccessorsUpdater.compareAndSet(this, head, node))
+					return true;
+				continue;
+			}
+			if(! (head instanceof Successor))
+				return false;
+			//we are executing so the list is not closed; nodes below head don't change anymore
+			for(Successor node = (Successor)head; node != null; node = node.next) {
+				if(node.task == child && ! node.released) {
+					node.released = true;
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+	
+	//true if we retain child through an edge that we didn't release early
+	private boolean retainsUnreleased(Task child) {
+		for(Object node = this.successors; node != null; node = nextOf(node)) {
+			if(taskOf(node) == child && ! isReleased(node))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * holds this task in the future until at least delay has passed; like an hb edge from a timer.
+	 * The scheduler's timer wheel releases the hold, so no thread sleeps while we wait.
+	 * Must be called by a task that happens before this, after this has been scheduled.
+	 * @param delay
+	 * @param unit
+	 */
+	public void notBefore(long delay, TimeUnit unit) {
+		Task now = Now.get();
+		if(this.isInInit())
+			throw new RuntimeException("Task must be scheduled before it can be delayed: " + this);
+		if(CHECK_WELLFORMEDNESS && !now.isOrderedBefore(this))
+			throw new RuntimeException("Now must happen before a task that it delays: " + now + ": " + this);
+		if(delay <= 0)
+			return;
+		
+		//now happens before this so this is in the future and stays there while we add the hold
+		this.addRetain(this, false);
+		//the hold keeps the domain alive; otherwise the graph could be done while this waits for the timer
+		final ScheduleDomain domain = this.domain;
+		final int leaf = domain.helperStarted();
+		domain.scheduler().timer().schedule(delay, unit, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if(Task.this.releaseOne(Task.this))
+						domain.submit(Task.this);
+				} finally {
+					domain.helperDone(leaf);
+				}
+			}
+		});
+	}
+	
+	public void notBefore(long millis) {
+		this.notBefore(millis, TimeUnit.MILLISECONDS);
+	}
+	
+	//decrements the retain count of succ; returns true if succ became ready, then the caller must fork or run it.
+	//the caller must not have departed from the domain yet, see ScheduleDomain
+	boolean releaseOne(Task succ) {
+		//succ's path must be known before it can start
+		WorkSpan workSpan = succ.domain.workSpan();
+		if(workSpan != null)
+			workSpan.edge(this, succ);
+		//read before the release; once the barrier ran it has no receiver anymore
+		boolean barrier = succ.receiver instanceof Barrier;
+		int count = succ.dropRetain(this);
+		//a barrier keeps its retain count at 1 until its last edge departs; only that last release is a release of the task
+		if(METRICS && (count == 0 || ! barrier))
+			TopRuntime.taskReleased(count + 1);
+		if(DEBUG)
+			System.out.println(this + " released " + succ + "; new retain count is " + count);
+		if(count == 0) {
+			if(TRACE)
+				TraceRecorder.record(TraceRecorder.READY, succ.traceId(), this.traceId(), succ.invoker.traceId());
+			//arrive before the fork; we haven't departed yet so the domain can't become done in between
+			succ.arrival = succ.domain.taskReady();
+			return true;
+		}
+		return false;
+	}
+	
+	//releases our successors and forks the ones that become ready;
+	//if exactly one becomes ready and inline is true we don't fork it but return it so that the caller can run it.
+	//if lazy is not null, ready lazy tasks are added to it instead of being forked; the caller runs them
+	private Task releaseRetained(Object head, boolean inline, ArrayList<Task> lazy) {
+		if(head == null)
+			return null;
+		if(head instanceof Task) {
+			//the common case: a single successor
+			Task succ = (Task)head;
+			if(! this.releaseOne(succ))
+				return null;
+			//tasks that go through the priority queue or belong to another worker are never inlined
+			if(inline && succ.domain.mayRunInline(succ))
+				return succ;
+			if(lazy != null && succ.lazy && succ.domain.mayRunLazily(succ)) {
+				lazy.add(succ);
+				return null;
+			}
+			succ.domain.submit(succ);
+			return null;
+		}
+		
+		Task[] succs = toArray((Successor)head);
+		if(succs.length >= BULK_RELEASE_THRESHOLD) {
+			//lazy tasks stay with the caller even in a wide fan-out, that's where the budget matters most
+			if(lazy != null)
+				succs = this.releaseLazy(succs, lazy);
+			if(succs.length > 0)
+				new BulkRelease(this, succs, 0, succs.length).releaseAll();
+			return null;
+		}
+		
+		Task single = null;
+		int ready = 0;
 		//release retained
-		for(Task succ : this.retainedTasks) {			
-			int count = succ.retainCount.decrementAndGet();
-			if(DEBUG)
-				System.out.println(this + " released " + succ + "; new retain count is " + count);
-			if(count == 0) {
-				numTasksScheduled.incrementAndGet();
-				succ.fork();				
+		for(Task succ : succs) {
+			if(this.releaseOne(succ)) {
+				if(lazy != null && succ.lazy && succ.domain.mayRunLazily(succ)) {
+					lazy.add(succ);
+					continue;
+				}
+				ready++;
+				if(! inline) {
+					succ.domain.submit(succ);
+				} else if(ready == 1) {
+					single = succ;
+				} else {
+					if(single != null) {
+						single.domain.submit(single);
+						single = null;
+					}
+					succ.domain.submit(succ);
+				}
+			}
+		}
+		if(single != null && ! single.domain.mayRunInline(single)) {
+			single.domain.submit(single);
+			return null;
+		}
+		return single;
+	}
+	
+	//releases the successors that may run lazily and adds the ready ones to lazy; returns the others
+	private Task[] releaseLazy(Task[] succs, ArrayList<Task> lazy) {
+		int others = 0;
+		for(Task succ : succs) {
+			if(succ.lazy && succ.domain.mayRunLazily(succ)) {
+				if(this.releaseOne(succ))
+					lazy.add(succ);
+			} else {
+				succs[others++] = succ;
 			}
 		}
+		return others == succs.length ? succs : Arrays.copyOf(succs, others);
 	}
 	
 	@Override
 	public void compute() {
+		//run continuations in a loop instead of recursively so the stack doesn't grow with the chain
+		Task task = this;
+		int run = 1;
+		//lazy tasks that our tasks made ready; we run them depth first like a sequential program would.
+		//(an empty ArrayList doesn't allocate its array, so this is cheap when there are none)
+		ArrayList<Task> lazy = new ArrayList<Task>();
+		try {
+			while(task != null) {
+				if(task.invoker.isBlocking()) {
+					//don't pin this worker; the task keeps its arrival in the domain until it's done on the blocking thread
+					task.domain.scheduler().executeBlocking(task.new BlockingRun());
+					task = null;
+				} else {
+					boolean inline = INLINE_CONTINUATIONS && run < MAX_INLINE_RUN;
+					Scheduler scheduler = task.domain.scheduler();
+					task = task.execute(inline, lazy);
+					//tasks that other threads placed on this worker come before whatever is in our deque
+					if(task == null && run < MAX_INLINE_RUN)
+						task = scheduler.takeAffine();
+				}
+				if(task == null && ! lazy.isEmpty()) {
+					task = lazy.remove(lazy.size() - 1);
+					task.domain.taskRunLazily();
+				}
+				run++;
+			}
+		} finally {
+			//only left over if a task failed. the lazy tasks arrived in their domains when they became ready,
+			//so somebody has to run them or the domains never get done and the main task never rethrows the failure
+			for(Task t : lazy) {
+				t.domain.submit(t);
+			}
+		}
+	}
+	
+	//runs a task of a @Blocking method and the blocking continuations it makes ready on a blocking thread
+	private final class BlockingRun implements Runnable {
+		@Override
+		public void run() {
+			Task task = Task.this;
+			try {
+				while(task != null) {
+					Task next = task.execute(INLINE_CONTINUATIONS, null);
+					if(next != null && ! next.invoker.isBlocking()) {
+						//compute tasks go back to the workers
+						next.domain.submit(next);
+						next = null;
+					}
+					task = next;
+				}
+			} catch (Throwable e) {
+				//execute() already recorded the failure in the domain
+			}
+		}
+	}
+	
+	//runs the task body and releases the successors; returns the continuation to run next, if any
+	private Task execute(boolean inline, ArrayList<Task> lazy) {
 		
-		assert(this.retainCount.get() == 0) : "retain count must be 0 but was " + this.retainCount;
+		assert(this.retainCount == 0) : "retain count must be 0 but was " + this.retainCount;
 		
-		this.retainCount.set(EXECUTING);
+		this.retainCount = EXECUTING;
+		this.worker = (short)(StripedCounter.threadIndex() - 1);
+		//every edge into this is gone; don't keep the creator alive
+		this.creator = null;
 		
 		//if(DEBUG)
 			//System.out.println("executing " + this);
 		
 		Now.set(this);
+		if(TRACE)
+			TraceRecorder.record(TraceRecorder.START, this.traceId(), 0, this.invoker.traceId());
+		WorkSpan workSpan = this.domain.workSpan();
+		if(workSpan != null)
+			workSpan.started(this);
+		if(METRICS) {
+			TopRuntime.taskStarted();
+			this.domain.scheduler().sampleQueueDepth(this.worker);
+		}
+		Object event = TopEvents.RECORDING ? TopEvents.taskStarted() : null;
 		
 		try {
-			this.method.invoke(this.receiver, this.params);
-			//synchronize to make sure we don't retire while somebody else adds HB relationships
-			synchronized(this) {
-				this.retainCount.set(RETIRED);
+			this.invoker.invoke(this.receiver, this.params);
+			this.retainCount = RETIRED;
+			if(TRACE)
+				TraceRecorder.record(TraceRecorder.RETIRE, this.traceId(), 0, this.invoker.traceId());
+			if(workSpan != null)
+				workSpan.retired(this);
+			if(METRICS)
+				TopRuntime.taskRetired();
+			//clean up and give successors a chance to execute; hb() calls that come after the close don't retain anymore
+			Object successors = this.closeSuccessors();
+			//the name and the count are only worth computing if the recording keeps the event (thresholds, disabled events)
+			if(TopEvents.taskEnded(event))
+				TopEvents.taskExecuted(event, this.invoker, this.worker, countSuccessors(successors));
+			Task continuation = this.releaseRetained(successors, inline, lazy);
+			//nobody can run us again; don't keep the receiver and the arguments alive as long as somebody references this task
+			if(!DEBUG) {
+				this.receiver = null;
+				this.params = null;
 			}
-			//clean up and give successors a chance to execute				
-			this.releaseRetained_unsynced();
+			if(continuation != null)
+				this.domain.taskInlined();
+			return continuation;
 		} catch (Exception e) {
-			Pool.shutdown();
-			//we kill the program if there is ever an unhandled exception
-			//so we know that either all works according to the schedule or we die
+			//we kill the main task if there is ever an unhandled exception
+			//so we know that either all works according to the schedule or we die;
+			//successors of this task never get released so the graph drains and the main task rethrows e
+			this.domain.fail(e);
 			e.printStackTrace();
 			throw new Error(e);
+		} catch (Error e) {
+			this.domain.fail(e);
+			throw e;
 		} finally {
 			//we're out'a here
 			Now.set(null);
 			//could set fields to null but why should we... GC will do that sooner or later
 			//and if the user keeps the thread around he might have a reason.
-			//we are just clearing the array lists to avoid keeping everything alive when only retaining one task
+			//if we failed the successor list is still open; closing it makes late hb() calls see that this is gone
+			//and drops the successors so that we don't keep everything alive
 			if(!DEBUG)
-				this.retainedTasks = null;
+				this.successors = Closed;
+			if(workSpan != null)
+				workSpan.done(this);
 			
-			//Phaser.arrive();
-			int waiting = numTasksScheduled.decrementAndGet();
-			if(waiting == 0) {
-				Pool.shutdown();
-			}
+			this.domain.taskDone(this.arrival);
 		}
 	}
 	
 	public String stateAsString() {
-		int count = this.retainCount.get();
+		int count = this.retainCount;
 		if(count == DURING_INIT) {
 			return "DURING_INIT";
 		} else if (count > 0) {
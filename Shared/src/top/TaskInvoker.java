@@ -0,0 +1,182 @@
+package top;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import top.trace.TraceRecorder;
+
+/**
+ * Calls the body of a task. There is one invoker per task method; tasks are bound to
+ * their invoker when they are scheduled and call it from compute() instead of going through
+ * Method.invoke(). Invokers are generated the first time a task method is scheduled (see InvokerGenerator)
+ * and cached afterwards. If we cannot generate an invoker (the declaring class or a parameter type
+ * is not public, javassist is missing, ...) we fall back to reflection.
+ * @author angererc
+ *
+ */
+public abstract class TaskInvoker {
+
+	//invokers that javassist compiles live in this package, the others have the marker in their name;
+	//the ScheduleSiteRewriter must not touch them because they call topTask_ methods directly
+	public static final String GeneratedInvokerPrefix = "top.generated.";
+	public static final String GeneratedInvokerMarker = "$TopInvoker$";
+
+	public static boolean isGeneratedInvokerClass(String className) {
+		return className.startsWith(GeneratedInvokerPrefix) || className.contains(GeneratedInvokerMarker);
+	}
+
+	//the invokers of the task methods of a class, kept with the class (like the tables of TaskResolver) so that the caches
+	//don't keep classes and their loaders alive; generated invokers are defined in the loader of that class as well
+	private static final ClassValue<Invokers> Caches = new ClassValue<Invokers>() {
+		@Override
+		protected Invokers computeValue(Class<?> type) {
+			return new Invokers();
+		}
+	};
+
+	private static final class Invokers {
+		final ConcurrentHashMap<Method, TaskInvoker> generated = new ConcurrentHashMap<Method, TaskInvoker>();
+		final ConcurrentHashMap<Method, TaskInvoker> reflective = new ConcurrentHashMap<Method, TaskInvoker>();
+	}
+
+	//set when the first generation failed; see generate()
+	private static final AtomicBoolean GenerationFailed = new AtomicBoolean();
+
+	private final Method method;
+	private final boolean blocking;
+	private final int traceId;
+
+	protected TaskInvoker(Method method) {
+		this.method = method;
+		this.blocking = isBlocking(method);
+		this.traceId = TraceRecorder.methodId(method);
+	}
+
+	//true if m or a method that it overrides or implements is annotated with @Blocking;
+	//Java doesn't inherit method annotations, but an override of a blocking task method blocks just the same
+	static boolean isBlocking(Method m) {
+		if(m.isAnnotationPresent(Blocking.class))
+			return true;
+		return overridesBlocking(m.getDeclaringClass(), m.getName(), m.getParameterTypes());
+	}
+
+	private static boolean overridesBlocking(Class<?> c, String name, Class<?>[] parameterTypes) {
+		Class<?> superclass = c.getSuperclass();
+		if(superclass != null && declaresBlocking(superclass, name, parameterTypes))
+			return true;
+		for(Class<?> i : c.getInterfaces()) {
+			if(declaresBlocking(i, name, parameterTypes))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean declaresBlocking(Class<?> c, String name, Class<?>[] parameterTypes) {
+		try {
+			Method m = c.getDeclaredMethod(name, parameterTypes);
+			//private methods are not overridden
+			if(! Modifier.isPrivate(m.getModifiers()) && m.isAnnotationPresent(Blocking.class))
+				return true;
+		} catch (NoSuchMethodException e) {
+			//not declared here; look further up
+		}
+		return overridesBlocking(c, name, parameterTypes);
+	}
+
+	public final Method method() {
+		return this.method;
+	}
+
+	public final String taskName() {
+		return this.method.getName();
+	}
+
+	//true if the task method is annotated with @Blocking
+	public final boolean isBlocking() {
+		return this.blocking;
+	}
+
+	//false if this calls the task method through Method.invoke()
+	public final boolean isGenerated() {
+		return ! (this instanceof ReflectiveInvoker);
+	}
+
+	//the id of the task method in traces; see TraceRecorder
+	public final int traceId() {
+		return this.traceId;
+	}
+
+	/**
+	 * calls the task method on receiver; params contains the "now" task at position 0
+	 * @param receiver
+	 * @param params
+	 * @throws Exception
+	 */
+	public abstract void invoke(Object receiver, Object[] params) throws Exception;
+
+	/**
+	 * returns the cached invoker for method m; generates one if necessary.
+	 * If Task.GENERATE_INVOKERS is off we return a cached reflective invoker instead.
+	 * @param m
+	 * @return
+	 */
+	public static TaskInvoker forMethod(Method m) {
+		boolean generate = Task.GENERATE_INVOKERS;
+		Invokers invokers = Caches.get(m.getDeclaringClass());
+		ConcurrentHashMap<Method, TaskInvoker> cache = generate ? invokers.generated : invokers.reflective;
+		TaskInvoker invoker = cache.get(m);
+		if(invoker == null) {
+			invoker = generate ? generate(m) : reflective(m);
+			TaskInvoker old = cache.putIfAbsent(m, invoker);
+			if(old != null)
+				invoker = old;
+		}
+		return invoker;
+	}
+
+	/**
+	 * generates a new invoker that calls m directly; returns a reflective invoker if that is not possible
+	 * @param m
+	 * @return
+	 */
+	public static TaskInvoker generate(Method m) {
+		try {
+			TaskInvoker invoker = InvokerGenerator.generate(m);
+			if(invoker != null)
+				return invoker;
+		} catch (Throwable e) {
+			//this usually means that the generator can't read the class files at all (see InvokerGenerator), so it fails
+			//for every task method; say it once, quietly running everything through reflection would hide it
+			if(GenerationFailed.compareAndSet(false, true) || Task.DEBUG)
+				System.err.println("top: cannot generate task invoker for " + m + ": " + e + "; falling back to reflection");
+		}
+		return reflective(m);
+	}
+
+	/**
+	 * returns a new invoker that uses Method.invoke()
+	 * @param m
+	 * @return
+	 */
+	public static TaskInvoker reflective(Method m) {
+		return new ReflectiveInvoker(m);
+	}
+
+	private static final class ReflectiveInvoker extends TaskInvoker {
+		ReflectiveInvoker(Method method) {
+			super(method);
+		}
+
+		@Override
+		public void invoke(Object receiver, Object[] params) throws Exception {
+			this.method().invoke(receiver, params);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + "(" + this.method + ")";
+	}
+}
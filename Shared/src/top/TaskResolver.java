@@ -0,0 +1,168 @@
+package top;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * finds the task method for a schedule call and caches the result.
+ *
+ * The answer only depends on the receiver class, the task name and the classes of the arguments
+ * so we keep one table per receiver class (in a ClassValue so that we don't keep classes alive)
+ * that maps the task name to the argument signatures we have seen so far.
+ * A lookup does not allocate; it compares the argument classes against the known signatures by identity.
+ *
+ * null arguments match any non-primitive parameter type; boxed arguments match the corresponding
+ * primitive parameter type.
+ * @author angererc
+ *
+ */
+final class TaskResolver {
+
+	private static final ClassValue<ConcurrentHashMap<String, Signature[]>> Tables = new ClassValue<ConcurrentHashMap<String, Signature[]>>() {
+		@Override
+		protected ConcurrentHashMap<String, Signature[]> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<String, Signature[]>();
+		}
+	};
+
+	//one resolved combination of argument classes; a null entry in argClasses means that the argument was null
+	private static final class Signature {
+		final Class<?>[] argClasses;
+		final Method method;
+		final boolean generated;
+		final TaskInvoker invoker;
+
+		Signature(Class<?>[] argClasses, Method method) {
+			this.argClasses = argClasses;
+			this.method = method;
+			this.generated = Task.GENERATE_INVOKERS;
+			this.invoker = TaskInvoker.forMethod(method);
+		}
+
+		boolean matches(Object[] params) {
+			Class<?>[] argClasses = this.argClasses;
+			if(argClasses.length != params.length)
+				return false;
+			for(int i = 0; i < argClasses.length; i++) {
+				Object param = params[i];
+				Class<?> paramClass = param == null ? null : param.getClass();
+				if(paramClass != argClasses[i])
+					return false;
+			}
+			return true;
+		}
+
+		TaskInvoker invoker() {
+			if(this.generated == Task.GENERATE_INVOKERS)
+				return this.invoker;
+			//somebody toggled GENERATE_INVOKERS; TaskInvoker has its own cache so this is not too bad
+			return TaskInvoker.forMethod(this.method);
+		}
+	}
+
+	private TaskResolver() {
+	}
+
+	/**
+	 * returns the invoker for the task method taskName in the class of receiver that accepts params
+	 * @param receiver
+	 * @param taskName
+	 * @param params
+	 * @return
+	 * @throws RuntimeException if there is no such method
+	 */
+	static TaskInvoker resolve(Object receiver, String taskName, Object[] params) {
+		ConcurrentHashMap<String, Signature[]> table = Tables.get(receiver.getClass());
+		Signature[] signatures = table.get(taskName);
+		if(signatures != null) {
+			for(Signature signature : signatures) {
+				if(signature.matches(params))
+					return signature.invoker();
+			}
+		}
+		return resolveSlow(table, receiver, taskName, params).invoker();
+	}
+
+	private static Signature resolveSlow(ConcurrentHashMap<String, Signature[]> table, Object receiver, String taskName, Object[] params) {
+		int len = params.length;
+		Class<?>[] argClasses = new Class<?>[len];
+		for(int i = 0; i < len; i++) {
+			argClasses[i] = params[i] == null ? null : params[i].getClass();
+		}
+
+		Method found = findMethod(receiver.getClass(), taskName, argClasses);
+		if(found == null) {
+			throw new RuntimeException("didn't find valid method for " + taskName + " in " + receiver);
+		}
+
+		Signature signature = new Signature(argClasses, found);
+		//copy on write; if we lose a race we just try again, the slow path is rare
+		while(true) {
+			Signature[] old = table.get(taskName);
+			Signature[] updated;
+			if(old == null) {
+				updated = new Signature[] { signature };
+				if(table.putIfAbsent(taskName, updated) == null)
+					return signature;
+			} else {
+				updated = new Signature[old.length + 1];
+				System.arraycopy(old, 0, updated, 0, old.length);
+				updated[old.length] = signature;
+				if(table.replace(taskName, old, updated))
+					return signature;
+			}
+		}
+	}
+
+	private static Method findMethod(Class<?> receiverClass, String taskName, Class<?>[] argClasses) {
+		//iterate all methods
+		findMethod: for(Method m : receiverClass.getMethods()) {
+			//name must be equal
+			if(m.getName().equals(taskName)) {
+				Class<?>[] methodParams = m.getParameterTypes();
+				//param lengths must be equal
+				if(methodParams.length == argClasses.length) {
+					//check that all param types are OK
+					for(int i = 0; i < methodParams.length; i++) {
+						if( ! accepts(methodParams[i], argClasses[i])) {
+							//no, continue with a different method
+							continue findMethod;
+						}
+					}
+					//params are OK, keep the method and finish
+					return m;
+				}
+			}
+		}
+		return null;
+	}
+
+	static boolean accepts(Class<?> methodParam, Class<?> argClass) {
+		if(argClass == null)
+			return ! methodParam.isPrimitive();
+		if(methodParam.isPrimitive())
+			return boxed(methodParam) == argClass;
+		return methodParam.isAssignableFrom(argClass);
+	}
+
+	private static Class<?> boxed(Class<?> primitive) {
+		if(primitive == Integer.TYPE)
+			return Integer.class;
+		else if(primitive == Long.TYPE)
+			return Long.class;
+		else if(primitive == Boolean.TYPE)
+			return Boolean.class;
+		else if(primitive == Double.TYPE)
+			return Double.class;
+		else if(primitive == Float.TYPE)
+			return Float.class;
+		else if(primitive == Short.TYPE)
+			return Short.class;
+		else if(primitive == Byte.TYPE)
+			return Byte.class;
+		else if(primitive == Character.TYPE)
+			return Character.class;
+		else
+			return null;
+	}
+}
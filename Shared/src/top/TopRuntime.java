@@ -0,0 +1,273 @@
+package top;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import top.utils.StripedCounter;
+
+/**
+ * Runtime wide metrics for JMX (jconsole, VisualVM, ...).
+ *
+ * TopRuntime.register(); //or run with -Dtop.metrics=true
+ *
+ * All counters are StripedCounters, so the tasks and permission checks of different workers don't
+ * contend for them; the getters sum up the stripes. With Task.METRICS off the runtime only pays for reading the flag.
+ * @author angererc
+ *
+ */
+public final class TopRuntime implements TopRuntimeMXBean {
+
+	public static final String Name = "top:type=Runtime";
+
+	//kinds of key chains; see Permissions
+	static final int SingleKeyChain = 0;
+	static final int MultiKeyChain = 1;
+	static final int DelegatingKeyChain = 2;
+	static final int ImmutableKeyChain = 3;
+	static final int SharedKeyChain = 4;
+	private static final String[] KeyChainKinds = { "Single", "Multi", "Delegating", "Immutable", "Shared" };
+
+	//retain counts at release; bucket i holds counts up to RetainBuckets[i]
+	private static final int[] RetainBuckets = { 1, 2, 4, 8, 16, 64, 256, Integer.MAX_VALUE };
+
+	private static final StripedCounter Scheduled = new StripedCounter();
+	private static final StripedCounter Started = new StripedCounter();
+	private static final StripedCounter Retired = new StripedCounter();
+	private static final StripedCounter Readied = new StripedCounter();
+	private static final StripedCounter HbEdges = new StripedCounter();
+	private static final StripedCounter[] RetainCounts = counters(RetainBuckets.length);
+	private static final StripedCounter[] PermissionChecks = counters(KeyChainKinds.length);
+
+	private static final CopyOnWriteArrayList<Scheduler> Running = new CopyOnWriteArrayList<Scheduler>();
+	private static final TopRuntime Instance = new TopRuntime();
+	private static boolean Registered = false;
+
+	//last value and time of each rate getter
+	private final long[] lastValue = new long[3];
+	private final long[] lastNanos = new long[3];
+	private final double[] lastRate = new double[3];
+
+	private TopRuntime() {
+		long now = System.nanoTime();
+		for(int i = 0; i < this.lastNanos.length; i++) {
+			this.lastNanos[i] = now;
+		}
+	}
+
+	private static StripedCounter[] counters(int n) {
+		StripedCounter[] counters = new StripedCounter[n];
+		for(int i = 0; i < n; i++) {
+			counters[i] = new StripedCounter();
+		}
+		return counters;
+	}
+
+	/**
+	 * registers the MXBean with the platform MBean server and turns metrics on; does nothing if it's registered already
+	 */
+	public static synchronized void register() {
+		Task.METRICS = true;
+		if(Registered)
+			return;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(Instance, new ObjectName(Name));
+		} catch (JMException e) {
+			throw new RuntimeException("cannot register " + Name, e);
+		}
+		Registered = true;
+	}
+
+	public static TopRuntimeMXBean get() {
+		return Instance;
+	}
+
+	/*
+	 * called by the runtime if Task.METRICS is on
+	 */
+
+	static void taskScheduled() {
+		Scheduled.increment();
+	}
+
+	static void taskStarted() {
+		Started.increment();
+	}
+
+	static void taskRetired() {
+		Retired.increment();
+	}
+
+	//a predecessor released task; count is the retain count before the release
+	static void taskReleased(int count) {
+		int bucket = 0;
+		while(count > RetainBuckets[bucket])
+			bucket++;
+		RetainCounts[bucket].increment();
+		if(count == 1)
+			Readied.increment();
+	}
+
+	//main tasks are ready right away
+	static void mainTaskReady() {
+		Readied.increment();
+	}
+
+	static void hbEdgeAdded() {
+		HbEdges.increment();
+	}
+
+	static void permissionChecked(int kind) {
+		PermissionChecks[kind].increment();
+	}
+
+	//called always, not only with metrics on
+	static void schedulerStarted(Scheduler scheduler) {
+		Running.add(scheduler);
+	}
+
+	static void schedulerClosed(Scheduler scheduler) {
+		Running.remove(scheduler);
+	}
+
+	/*
+	 * TopRuntimeMXBean
+	 */
+
+	@Override
+	public boolean isEnabled() {
+		return Task.METRICS;
+	}
+
+	@Override
+	public void setEnabled(boolean on) {
+		Task.METRICS = on;
+	}
+
+	@Override
+	public synchronized void reset() {
+		Scheduled.reset();
+		Started.reset();
+		Retired.reset();
+		Readied.reset();
+		HbEdges.reset();
+		for(StripedCounter c : RetainCounts) {
+			c.reset();
+		}
+		for(StripedCounter c : PermissionChecks) {
+			c.reset();
+		}
+		long now = System.nanoTime();
+		for(int i = 0; i < this.lastNanos.length; i++) {
+			this.lastValue[i] = 0;
+			this.lastNanos[i] = now;
+			this.lastRate[i] = 0;
+		}
+	}
+
+	@Override
+	public long getTasksScheduled() {
+		return Scheduled.sum();
+	}
+
+	@Override
+	public long getTasksStarted() {
+		return Started.sum();
+	}
+
+	@Override
+	public long getTasksRetired() {
+		return Retired.sum();
+	}
+
+	@Override
+	public double getTasksScheduledPerSecond() {
+		return this.rate(0, Scheduled.sum());
+	}
+
+	@Override
+	public double getTasksStartedPerSecond() {
+		return this.rate(1, Started.sum());
+	}
+
+	@Override
+	public double getTasksRetiredPerSecond() {
+		return this.rate(2, Retired.sum());
+	}
+
+	//if the getter is called again within 100ms we return the previous rate instead of a noisy one
+	private synchronized double rate(int i, long value) {
+		long now = System.nanoTime();
+		long elapsed = now - this.lastNanos[i];
+		if(elapsed < 100000000L)
+			return this.lastRate[i];
+		this.lastRate[i] = (value - this.lastValue[i]) * 1e9 / elapsed;
+		this.lastValue[i] = value;
+		this.lastNanos[i] = now;
+		return this.lastRate[i];
+	}
+
+	@Override
+	public long getRetainedTasks() {
+		return Math.max(0, Scheduled.sum() - Readied.sum());
+	}
+
+	@Override
+	public int[] getWorkerQueueDepths() {
+		int size = 0;
+		Scheduler[] schedulers = Running.toArray(new Scheduler[0]);
+		for(Scheduler s : schedulers) {
+			size += s.parallelism();
+		}
+		int[] depths = new int[size];
+		int i = 0;
+		for(Scheduler s : schedulers) {
+			for(int w = 0; w < s.parallelism() && i < size; w++) {
+				depths[i++] = s.queueDepth(w);
+			}
+		}
+		return depths;
+	}
+
+	@Override
+	public long getStealCount() {
+		long steals = 0;
+		for(Scheduler s : Running) {
+			steals += s.stealCount();
+		}
+		return steals;
+	}
+
+	@Override
+	public long getHbEdges() {
+		return HbEdges.sum();
+	}
+
+	@Override
+	public Map<String, Long> getRetainCountsAtRelease() {
+		LinkedHashMap<String, Long> histogram = new LinkedHashMap<String, Long>();
+		int lower = 1;
+		for(int i = 0; i < RetainBuckets.length; i++) {
+			int upper = RetainBuckets[i];
+			String label = upper == lower ? String.valueOf(upper) : (upper == Integer.MAX_VALUE ? ">" + (lower - 1) : lower + "-" + upper);
+			histogram.put(label, RetainCounts[i].sum());
+			lower = upper + 1;
+		}
+		return histogram;
+	}
+
+	@Override
+	public Map<String, Long> getPermissionChecks() {
+		LinkedHashMap<String, Long> checks = new LinkedHashMap<String, Long>();
+		for(int i = 0; i < KeyChainKinds.length; i++) {
+			checks.put(KeyChainKinds[i], PermissionChecks[i].sum());
+		}
+		return checks;
+	}
+}
@@ -0,0 +1,49 @@
+package top;
+
+import java.util.Map;
+
+/**
+ * Live counters and gauges of the TOP runtime; registered as "top:type=Runtime" by TopRuntime.register().
+ * Counters only move while Task.METRICS is on (see setEnabled()).
+ * @author angererc
+ *
+ */
+public interface TopRuntimeMXBean {
+
+	boolean isEnabled();
+
+	void setEnabled(boolean on);
+
+	//sets all counters to 0
+	void reset();
+
+	long getTasksScheduled();
+
+	long getTasksStarted();
+
+	long getTasksRetired();
+
+	//rates since the previous call of the same getter
+	double getTasksScheduledPerSecond();
+
+	double getTasksStartedPerSecond();
+
+	double getTasksRetiredPerSecond();
+
+	//tasks that are scheduled but still wait for predecessors
+	long getRetainedTasks();
+
+	//the number of tasks in the deque of each worker of the running schedulers, sampled when the worker starts a task
+	int[] getWorkerQueueDepths();
+
+	//tasks stolen by the workers of the running schedulers
+	long getStealCount();
+
+	long getHbEdges();
+
+	//how many retains a task still had when one of its predecessors released it; 1 means the task became ready
+	Map<String, Long> getRetainCountsAtRelease();
+
+	//Permissions.checkRead() and checkWrite() calls by kind of key chain
+	Map<String, Long> getPermissionChecks();
+}
@@ -0,0 +1,171 @@
+package top;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import top.utils.ConcurrentIdentityHashMap;
+import top.utils.StripedCounter;
+
+/**
+ * Work, span and critical path of the task graph of a domain, computed while the graph executes.
+ * Turn it on with Task.WORK_SPAN (-Dtop.workspan=true) before the main task starts; the domain's workSpan()
+ * returns the result once the graph is done. The runtime doesn't print it, printing would distort the run;
+ * the Sor and Tsp benchmarks print it after their timed part.
+ *
+ * Work is the sum of the execution times of all tasks. The span is the longest path through the graph where
+ * the length of a path is the sum of the execution times of its tasks; edges are the hb edges and the edges from
+ * creators to the tasks they schedule. A creator that releases a child early (Task.release()) only counts with
+ * the part of its body before the release. work / span is the parallelism: with more workers than that the graph
+ * cannot run faster, no matter how good the scheduler is.
+ *
+ * Each task gets a side node while it's pending or executing; retired nodes stay alive only as long as they are
+ * the critical predecessor of a node that is still alive.
+ * @author angererc
+ *
+ */
+public final class WorkSpan {
+
+	static final class Node {
+		final String method;
+		//the longest path to us without our own time, and the predecessor on that path
+		long pathStart;
+		Node critical;
+		long startNanos;
+		//-1 while we are pending or executing
+		long duration = -1;
+
+		Node(String method) {
+			this.method = method;
+		}
+
+		long pathEnd() {
+			return this.pathStart + this.duration;
+		}
+	}
+
+	private final ConcurrentIdentityHashMap<Task, Node> nodes = new ConcurrentIdentityHashMap<Task, Node>();
+	private final StripedCounter work;
+	private final AtomicReference<Node> last = new AtomicReference<Node>();
+
+	WorkSpan(int stripes) {
+		this.work = new StripedCounter(stripes);
+	}
+
+	/*
+	 * called by the tasks of the domain
+	 */
+
+	void scheduled(Task task, TaskInvoker invoker) {
+		this.nodes.put(task, new Node(invoker.method().getDeclaringClass().getName() + "." + invoker.taskName()));
+	}
+
+	void started(Task task) {
+		Node node = this.nodes.get(task);
+		if(node != null)
+			node.startNanos = System.nanoTime();
+	}
+
+	//task's body returned; must be called before task releases its successors
+	void retired(Task task) {
+		Node node = this.nodes.get(task);
+		if(node == null)
+			return;
+		node.duration = System.nanoTime() - node.startNanos;
+		this.work.add(node.duration);
+		long end = node.pathEnd();
+		while(true) {
+			Node last = this.last.get();
+			if(last != null && last.pathEnd() >= end)
+				break;
+			if(this.last.compareAndSet(last, node))
+				break;
+		}
+	}
+
+	//task is done and released its successors; we don't need the mapping anymore
+	void done(Task task) {
+		this.nodes.remove(task);
+	}
+
+	//pred releases its edge to succ; if pred is still executing (early release) only the time up to now counts
+	void edge(Task pred, Task succ) {
+		Node from = this.nodes.get(pred);
+		Node to = this.nodes.get(succ);
+		if(from == null || to == null || from == to)
+			return;
+		long end = from.duration >= 0 ? from.pathEnd() : from.pathStart + (System.nanoTime() - from.startNanos);
+		synchronized(to) {
+			if(to.critical == null || end > to.pathStart) {
+				to.pathStart = end;
+				to.critical = from;
+			}
+		}
+	}
+
+	/*
+	 * results; exact once the domain is done
+	 */
+
+	//sum of the execution times of all tasks
+	public long workNanos() {
+		return this.work.sum();
+	}
+
+	//length of the critical path
+	public long spanNanos() {
+		Node last = this.last.get();
+		return last == null ? 0 : last.pathEnd();
+	}
+
+	public double parallelism() {
+		long span = this.spanNanos();
+		return span == 0 ? 0 : (double)this.workNanos() / span;
+	}
+
+	//the task methods on the critical path, first task first
+	public List<String> criticalPath() {
+		ArrayList<String> path = new ArrayList<String>();
+		for(Node node = this.last.get(); node != null; node = node.critical) {
+			path.add(node.method);
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	//time on the critical path per task method, longest first
+	public Map<String, Long> criticalPathByMethod() {
+		final HashMap<String, Long> nanos = new HashMap<String, Long>();
+		for(Node node = this.last.get(); node != null; node = node.critical) {
+			Long sum = nanos.get(node.method);
+			nanos.put(node.method, (sum == null ? 0 : sum) + Math.max(node.duration, 0));
+		}
+		ArrayList<String> methods = new ArrayList<String>(nanos.keySet());
+		Collections.sort(methods, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return nanos.get(b).compareTo(nanos.get(a));
+			}
+		});
+		LinkedHashMap<String, Long> sorted = new LinkedHashMap<String, Long>();
+		for(String method : methods) {
+			sorted.put(method, nanos.get(method));
+		}
+		return sorted;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("work=%.3fms span=%.3fms parallelism=%.2f; critical path has %d tasks:", this.workNanos() / 1e6, this.spanNanos() / 1e6, this.parallelism(), this.criticalPath().size()));
+		for(Map.Entry<String, Long> e : this.criticalPathByMethod().entrySet()) {
+			sb.append(String.format(" %s %.3fms", e.getKey(), e.getValue() / 1e6));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,134 @@
+package top.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import top.TaskInvoker;
+
+/**
+ * The part of TopEvents that links against jdk.jfr; only loaded if the JVM has it.
+ * @author angererc
+ *
+ */
+final class JfrSupport {
+
+	private JfrSupport() {
+	}
+
+	@Name("top.TaskExecuted")
+	@Label("Task Executed")
+	@Category("TOP")
+	@Description("A task body ran; the duration doesn't include releasing the successors")
+	@StackTrace(false)
+	static final class TaskExecuted extends Event {
+		@Label("Task Method")
+		String method;
+		@Label("Worker")
+		@Description("Pool index of the worker; -1 if the task ran on another thread")
+		int worker;
+		@Label("Retained Successors")
+		@Description("Successors the task retained when it retired")
+		int retained;
+	}
+
+	@Name("top.HbEdge")
+	@Label("Happens-Before Edge")
+	@Category("TOP")
+	@StackTrace(false)
+	static final class HbEdge extends Event {
+		@Label("From")
+		String from;
+		@Label("To")
+		String to;
+	}
+
+	@Name("top.PermissionTransfer")
+	@Label("Permission Transfer")
+	@Category("TOP")
+	@Description("replaceNowWithTask, addTask, linkKeychains or makeShared")
+	static final class PermissionTransfer extends Event {
+		@Label("Operation")
+		String operation;
+		@Label("Object Class")
+		String objectClass;
+		@Label("Now")
+		String now;
+		@Label("Task")
+		@Description("The task or master object that gets access")
+		String task;
+	}
+
+	//we don't register the event classes here; that would initialize JFR in every run. They register when they are first used
+	static void install() {
+		FlightRecorder.addListener(new FlightRecorderListener() {
+			@Override
+			public void recorderInitialized(FlightRecorder recorder) {
+				this.update(recorder);
+			}
+
+			@Override
+			public void recordingStateChanged(Recording recording) {
+				this.update(FlightRecorder.getFlightRecorder());
+			}
+
+			private void update(FlightRecorder recorder) {
+				boolean running = false;
+				for(Recording r : recorder.getRecordings()) {
+					if(r.getState() == RecordingState.RUNNING)
+						running = true;
+				}
+				TopEvents.recordingChanged(running);
+			}
+		});
+	}
+
+	static Object taskStarted() {
+		TaskExecuted event = new TaskExecuted();
+		if(! event.isEnabled())
+			return null;
+		event.begin();
+		return event;
+	}
+
+	static boolean taskEnded(Object e) {
+		TaskExecuted event = (TaskExecuted)e;
+		event.end();
+		return event.shouldCommit();
+	}
+
+	//only called if taskEnded() returned true
+	static void taskExecuted(Object e, TaskInvoker invoker, int worker, int retained) {
+		TaskExecuted event = (TaskExecuted)e;
+		event.method = invoker.method().getDeclaringClass().getName() + "." + invoker.taskName();
+		event.worker = worker;
+		event.retained = retained;
+		event.commit();
+	}
+
+	static void hbEdge(String from, String to) {
+		HbEdge event = new HbEdge();
+		if(event.shouldCommit()) {
+			event.from = from;
+			event.to = to;
+			event.commit();
+		}
+	}
+
+	static void permission(String operation, Object object, Object now, Object task) {
+		PermissionTransfer event = new PermissionTransfer();
+		if(event.shouldCommit()) {
+			event.operation = operation;
+			event.objectClass = object == null ? null : object.getClass().getName();
+			event.now = String.valueOf(now);
+			event.task = String.valueOf(task);
+			event.commit();
+		}
+	}
+}
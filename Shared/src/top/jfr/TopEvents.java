@@ -0,0 +1,83 @@
+package top.jfr;
+
+import top.TaskInvoker;
+
+/**
+ * JDK Flight Recorder events of the runtime: executed tasks, hb edges and permission transfers.
+ *
+ * java -Dtop.jfr=true -XX:StartFlightRecording=filename=run.jfr ... //or start a recording from jcmd or JMC
+ *
+ * The runtime checks RECORDING before it creates an event, so without a running recording an event costs
+ * a read of a volatile boolean. RECORDING is maintained by a FlightRecorderListener that we only install with
+ * -Dtop.jfr=true or install(): touching jdk.jfr at all costs more startup time than many of our runs take.
+ * On JVMs without jdk.jfr install() returns false and the events are simply not there.
+ * @author angererc
+ *
+ */
+public final class TopEvents {
+
+	//true while at least one JFR recording is running
+	public static volatile boolean RECORDING = false;
+
+	private static Boolean Installed = null;
+
+	static {
+		if(Boolean.getBoolean("top.jfr"))
+			install();
+	}
+
+	private TopEvents() {
+	}
+
+	/**
+	 * starts watching for JFR recordings; returns false if this JVM has no JFR
+	 * @return
+	 */
+	public static synchronized boolean install() {
+		if(Installed == null) {
+			try {
+				Class.forName("jdk.jfr.FlightRecorder");
+				JfrSupport.install();
+				Installed = Boolean.TRUE;
+			} catch (Throwable e) {
+				//no JFR on this JVM, or we are not allowed to use it
+				Installed = Boolean.FALSE;
+			}
+		}
+		return Installed;
+	}
+
+	static void recordingChanged(boolean running) {
+		RECORDING = running;
+	}
+
+	/*
+	 * called by the runtime if RECORDING is true, so JfrSupport is loaded already; events are passed around as Object
+	 * so that callers don't link against jdk.jfr
+	 */
+
+	//starts the timing of a task; returns null if task events are disabled in the recording settings
+	public static Object taskStarted() {
+		return JfrSupport.taskStarted();
+	}
+
+	//ends the timing of the event returned by taskStarted(); returns false if the event is not going to be committed,
+	//then the caller doesn't need to compute the fields of taskExecuted()
+	public static boolean taskEnded(Object event) {
+		return event != null && JfrSupport.taskEnded(event);
+	}
+
+	//commits an event that taskEnded() accepted; retained is the number of successors the task releases
+	public static void taskExecuted(Object event, TaskInvoker invoker, int worker, int retained) {
+		JfrSupport.taskExecuted(event, invoker, worker, retained);
+	}
+
+	public static void hbEdge(String from, String to) {
+		JfrSupport.hbEdge(from, to);
+	}
+
+	//a key chain change; operation is the name of the Permissions method
+	public static void permission(String operation, Object object, Object now, Object task) {
+		JfrSupport.permission(operation, object, now, task);
+	}
+}
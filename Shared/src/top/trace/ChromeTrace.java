@@ -0,0 +1,112 @@
+package top.trace;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Converts a TraceFile to the Trace Event JSON format that chrome://tracing and ui.perfetto.dev open.
+ * Every thread becomes a track; executing tasks are slices named after their task method,
+ * schedule and hb events are instants, and a flow arrow goes from the point where a task became ready to its start.
+ *
+ * java top.trace.ChromeTrace run.toptrace run.json
+ * @author angererc
+ *
+ */
+public final class ChromeTrace {
+
+	private ChromeTrace() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length != 2) {
+			System.err.println("usage: ChromeTrace <trace file> <json file>");
+			System.exit(1);
+		}
+		TraceFile trace = TraceFile.read(new File(args[0]));
+		Writer out = new BufferedWriter(new FileWriter(args[1]));
+		try {
+			write(trace, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void write(TraceFile trace, Writer out) throws IOException {
+		long start = trace.startNanos();
+		out.write("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[\n");
+		boolean first = true;
+		List<TraceFile.ThreadTrace> threads = trace.threads();
+		for(int tid = 0; tid < threads.size(); tid++) {
+			TraceFile.ThreadTrace thread = threads.get(tid);
+			String name = thread.worker >= 0 ? thread.name + " (worker " + thread.worker + ")" : thread.name;
+			//threads that are not workers share their buffers, so the tasks of a track may overlap; they become async slices
+			boolean shared = thread.worker < 0;
+			first = event(out, first, "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + tid + ",\"args\":{\"name\":" + quote(name) + "}}");
+			for(TraceFile.Event e : thread.events) {
+				String common = ",\"pid\":1,\"tid\":" + tid + ",\"ts\":" + micros(e.nanos - start);
+				String method = quote(trace.methodName(e.method));
+				switch(e.type) {
+				case TraceRecorder.SCHEDULE:
+					first = event(out, first, "{\"name\":\"schedule\",\"ph\":\"i\",\"s\":\"t\"" + common + ",\"args\":{\"task\":" + e.task + ",\"method\":" + method + ",\"by\":" + e.other + "}}");
+					break;
+				case TraceRecorder.READY:
+					first = event(out, first, "{\"name\":\"ready\",\"cat\":\"task\",\"ph\":\"s\",\"id\":" + e.task + common + "}");
+					break;
+				case TraceRecorder.START:
+					first = event(out, first, "{\"name\":\"ready\",\"cat\":\"task\",\"ph\":\"f\",\"bp\":\"e\",\"id\":" + e.task + common + "}");
+					if(shared)
+						first = event(out, first, "{\"name\":" + method + ",\"cat\":\"blocking\",\"ph\":\"b\",\"id\":" + e.task + common + "}");
+					else
+						first = event(out, first, "{\"name\":" + method + ",\"ph\":\"B\"" + common + ",\"args\":{\"task\":" + e.task + "}}");
+					break;
+				case TraceRecorder.RETIRE:
+					if(shared)
+						first = event(out, first, "{\"name\":" + method + ",\"cat\":\"blocking\",\"ph\":\"e\",\"id\":" + e.task + common + "}");
+					else
+						first = event(out, first, "{\"ph\":\"E\"" + common + "}");
+					break;
+				case TraceRecorder.HB:
+					first = event(out, first, "{\"name\":\"hb\",\"ph\":\"i\",\"s\":\"t\"" + common + ",\"args\":{\"from\":" + e.task + ",\"to\":" + e.other + "}}");
+					break;
+				case TraceRecorder.RELEASE:
+					first = event(out, first, "{\"name\":\"release\",\"ph\":\"i\",\"s\":\"t\"" + common + ",\"args\":{\"from\":" + e.other + ",\"to\":" + e.task + "}}");
+					break;
+				default:
+					throw new IOException("unknown event type " + e.type);
+				}
+			}
+		}
+		out.write("\n]}\n");
+	}
+
+	private static boolean event(Writer out, boolean first, String json) throws IOException {
+		if(! first)
+			out.write(",\n");
+		out.write(json);
+		return false;
+	}
+
+	//trace event timestamps are in microseconds
+	private static String micros(long nanos) {
+		return (nanos / 1000) + "." + String.format("%03d", nanos % 1000);
+	}
+
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if(c < 0x20) {
+				sb.append(String.format("\\u%04x", (int)c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
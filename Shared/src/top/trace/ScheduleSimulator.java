@@ -0,0 +1,331 @@
+package top.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Replays a TaskGraph on a simulated machine with a given number of cores and predicts the makespan.
+ * The simulation is event driven: a task occupies its core for its recorded duration (plus an optional per-task overhead)
+ * and its successors become ready when their last predecessor releases them. Which ready task an idle core runs next
+ * is up to a Policy:
+ *
+ * work-stealing  per-core deques like the fork join pool: a core pushes the tasks it makes ready onto its own deque
+ *                and pops the newest one; idle cores steal the oldest task of another core
+ * fifo           one global queue in ready order
+ * priority       one global queue, longest path to the end first (list scheduling by bottom level);
+ *                traces don't record Task.setPriority() values, so this is the best case of a priority scheduler
+ * inline         work-stealing, plus a core that makes exactly one successor ready runs it right away,
+ *                like Task.INLINE_CONTINUATIONS
+ *
+ * java top.trace.ScheduleSimulator run.toptrace [cores...]
+ *
+ * Durations are the ones measured in the traced run, so contention on memory or locks that changes with the
+ * number of cores is not modeled; the predictions are upper bounds for the speedup.
+ * @author angererc
+ *
+ */
+public final class ScheduleSimulator {
+
+	/**
+	 * decides which ready task an idle core runs next
+	 */
+	public interface Policy {
+		String name();
+		void reset(TaskGraph graph, int cores);
+		//task became ready on core; core is -1 for tasks that are ready from the start
+		void ready(int task, int core);
+		//the task that core runs next or -1 if it stays idle
+		int next(int core);
+		//if true a core that makes exactly one successor ready when it finishes a task runs that successor itself
+		boolean inlinesSuccessor();
+	}
+
+	public static class WorkStealing implements Policy {
+		//so that we can make an array of deques without raw types
+		private static final class Deque extends ArrayDeque<Integer> {
+			private static final long serialVersionUID = 1L;
+		}
+
+		private Deque[] deques;
+		private int cores;
+
+		@Override
+		public String name() {
+			return "work-stealing";
+		}
+
+		@Override
+		public void reset(TaskGraph graph, int cores) {
+			this.cores = cores;
+			this.deques = new Deque[cores];
+			for(int c = 0; c < cores; c++) {
+				this.deques[c] = new Deque();
+			}
+		}
+
+		@Override
+		public void ready(int task, int core) {
+			this.deques[core < 0 ? 0 : core].addLast(task);
+		}
+
+		@Override
+		public int next(int core) {
+			Integer task = this.deques[core].pollLast();
+			if(task != null)
+				return task;
+			//steal the oldest task, trying the other cores round robin
+			for(int i = 1; i < this.cores; i++) {
+				task = this.deques[(core + i) % this.cores].pollFirst();
+				if(task != null)
+					return task;
+			}
+			return -1;
+		}
+
+		@Override
+		public boolean inlinesSuccessor() {
+			return false;
+		}
+	}
+
+	public static class Inline extends WorkStealing {
+		@Override
+		public String name() {
+			return "inline";
+		}
+
+		@Override
+		public boolean inlinesSuccessor() {
+			return true;
+		}
+	}
+
+	public static class Fifo implements Policy {
+		private final ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+
+		@Override
+		public String name() {
+			return "fifo";
+		}
+
+		@Override
+		public void reset(TaskGraph graph, int cores) {
+			this.queue.clear();
+		}
+
+		@Override
+		public void ready(int task, int core) {
+			this.queue.addLast(task);
+		}
+
+		@Override
+		public int next(int core) {
+			Integer task = this.queue.pollFirst();
+			return task == null ? -1 : task;
+		}
+
+		@Override
+		public boolean inlinesSuccessor() {
+			return false;
+		}
+	}
+
+	public static class Priority implements Policy {
+		private PriorityQueue<Integer> queue;
+
+		@Override
+		public String name() {
+			return "priority";
+		}
+
+		@Override
+		public void reset(final TaskGraph graph, int cores) {
+			this.queue = new PriorityQueue<Integer>(64, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					long la = graph.bottomLevel(a);
+					long lb = graph.bottomLevel(b);
+					return la > lb ? -1 : (la == lb ? a.compareTo(b) : 1);
+				}
+			});
+		}
+
+		@Override
+		public void ready(int task, int core) {
+			this.queue.add(task);
+		}
+
+		@Override
+		public int next(int core) {
+			Integer task = this.queue.poll();
+			return task == null ? -1 : task;
+		}
+
+		@Override
+		public boolean inlinesSuccessor() {
+			return false;
+		}
+	}
+
+	public static Policy[] policies() {
+		return new Policy[] { new WorkStealing(), new Fifo(), new Priority(), new Inline() };
+	}
+
+	//a task finishes or releases an early edge at time
+	private static final class Event implements Comparable<Event> {
+		final long time;
+		final long seq;
+		final int core;
+		final int task;
+		//-1 for the end of the task, otherwise the index of the edge that task releases early
+		final int edge;
+
+		Event(long time, long seq, int core, int task, int edge) {
+			this.time = time;
+			this.seq = seq;
+			this.core = core;
+			this.task = task;
+			this.edge = edge;
+		}
+
+		@Override
+		public int compareTo(Event o) {
+			if(this.time != o.time)
+				return this.time < o.time ? -1 : 1;
+			return this.seq < o.seq ? -1 : (this.seq == o.seq ? 0 : 1);
+		}
+	}
+
+	private final TaskGraph graph;
+	//added to the duration of every task, e.g., to model the cost of scheduling
+	private long overheadNanos;
+
+	public ScheduleSimulator(TaskGraph graph) {
+		this.graph = graph;
+	}
+
+	public ScheduleSimulator setOverheadNanos(long nanos) {
+		this.overheadNanos = nanos;
+		return this;
+	}
+
+	/**
+	 * simulates the graph on cores cores; returns the predicted makespan in nanos
+	 * @param cores
+	 * @param policy
+	 * @return
+	 */
+	public long simulate(int cores, Policy policy) {
+		if(cores <= 0)
+			throw new IllegalArgumentException("cores must be positive but was " + cores);
+		TaskGraph g = this.graph;
+		policy.reset(g, cores);
+		int[] remaining = new int[g.size()];
+		for(int t = 0; t < g.size(); t++) {
+			remaining[t] = g.predecessors(t);
+			if(remaining[t] == 0)
+				policy.ready(t, -1);
+		}
+
+		PriorityQueue<Event> events = new PriorityQueue<Event>();
+		long seq = 0;
+		boolean[] busy = new boolean[cores];
+		long now = 0;
+		long makespan = 0;
+		ArrayList<Integer> madeReady = new ArrayList<Integer>();
+		while(true) {
+			//hand out work to idle cores
+			for(int c = 0; c < cores; c++) {
+				if(busy[c])
+					continue;
+				int task = policy.next(c);
+				if(task < 0)
+					continue;
+				seq = this.start(events, seq, now, c, task);
+				busy[c] = true;
+			}
+			Event e = events.poll();
+			if(e == null)
+				break;
+			now = e.time;
+			madeReady.clear();
+			if(e.edge >= 0) {
+				int succ = g.successors(e.task)[e.edge];
+				if(--remaining[succ] == 0)
+					policy.ready(succ, e.core);
+				continue;
+			}
+			//the task is done
+			makespan = Math.max(makespan, now);
+			int[] succs = g.successors(e.task);
+			for(int i = 0; i < succs.length; i++) {
+				if(g.releasesAtEnd(e.task, i) && --remaining[succs[i]] == 0)
+					madeReady.add(succs[i]);
+			}
+			if(policy.inlinesSuccessor() && madeReady.size() == 1) {
+				seq = this.start(events, seq, now, e.core, madeReady.get(0));
+				continue;
+			}
+			for(int succ : madeReady) {
+				policy.ready(succ, e.core);
+			}
+			busy[e.core] = false;
+		}
+		for(int t = 0; t < g.size(); t++) {
+			if(remaining[t] != 0)
+				throw new IllegalStateException("task " + t + " (" + g.method(t) + ") never became ready");
+		}
+		return makespan;
+	}
+
+	private long start(PriorityQueue<Event> events, long seq, long now, int core, int task) {
+		TaskGraph g = this.graph;
+		long start = now + this.overheadNanos;
+		events.add(new Event(start + g.duration(task), seq++, core, task, -1));
+		int[] succs = g.successors(task);
+		for(int i = 0; i < succs.length; i++) {
+			if(! g.releasesAtEnd(task, i))
+				events.add(new Event(start + g.releaseOffset(task, i), seq++, core, task, i));
+		}
+		return seq;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("usage: ScheduleSimulator <trace file> [cores...]");
+			System.exit(1);
+		}
+		TaskGraph graph = TaskGraph.of(TraceFile.read(new File(args[0])));
+		int[] cores;
+		if(args.length > 1) {
+			cores = new int[args.length - 1];
+			for(int i = 1; i < args.length; i++) {
+				cores[i - 1] = Integer.parseInt(args[i]);
+			}
+		} else {
+			cores = new int[] { 1, 2, 4, 8, 16, 32, 64 };
+		}
+
+		System.out.printf("%d tasks, work %.3fms, span %.3fms, parallelism %.2f, recorded makespan %.3fms%n", graph.size(), graph.workNanos() / 1e6, graph.spanNanos() / 1e6,
+				graph.spanNanos() == 0 ? 0 : (double)graph.workNanos() / graph.spanNanos(), graph.recordedMakespanNanos() / 1e6);
+		ScheduleSimulator simulator = new ScheduleSimulator(graph);
+		Policy[] policies = policies();
+		System.out.printf("%6s", "cores");
+		for(Policy p : policies) {
+			System.out.printf(" %22s", p.name());
+		}
+		System.out.println();
+		for(int n : cores) {
+			System.out.printf("%6d", n);
+			for(Policy p : policies) {
+				long makespan = simulator.simulate(n, p);
+				System.out.printf(" %12.3fms (%5.2fx)", makespan / 1e6, makespan == 0 ? 0 : (double)graph.workNanos() / makespan);
+			}
+			System.out.println();
+		}
+	}
+}
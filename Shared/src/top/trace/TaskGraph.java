@@ -0,0 +1,251 @@
+package top.trace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The executed task graph of a trace: every task that started and retired with its duration, and the edges between them.
+ * Edges come from hb events and from schedule events (creator -> task). If a creator released a task early
+ * (Task.release()) the edge carries the offset into the creator's body at which it was released;
+ * all other edges are released when their predecessor is done.
+ * Tasks that didn't retire in the trace (failed, still running, or overwritten in the ring buffer) are left out
+ * together with their edges.
+ * @author angererc
+ *
+ */
+public final class TaskGraph {
+
+	//released when the predecessor is done
+	public static final long AtEnd = -1;
+
+	private final int size;
+	private final String[] methods;
+	private final long[] durations;
+	private final int[][] successors;
+	private final long[][] offsets;
+	private final int[] predecessors;
+	//duration of the task plus the longest path after it
+	private final long[] bottomLevels;
+	private final long work;
+	private final long span;
+	private final long recordedMakespan;
+
+	private TaskGraph(List<String> methods, long[] durations, List<List<int[]>> edges, List<List<Long>> offsets, long recordedMakespan) {
+		this.size = durations.length;
+		this.methods = methods.toArray(new String[this.size]);
+		this.durations = durations;
+		this.successors = new int[this.size][];
+		this.offsets = new long[this.size][];
+		this.predecessors = new int[this.size];
+		long work = 0;
+		for(int t = 0; t < this.size; t++) {
+			List<int[]> out = edges.get(t);
+			this.successors[t] = new int[out.size()];
+			this.offsets[t] = new long[out.size()];
+			for(int e = 0; e < out.size(); e++) {
+				int succ = out.get(e)[0];
+				this.successors[t][e] = succ;
+				this.offsets[t][e] = offsets.get(t).get(e);
+				this.predecessors[succ]++;
+			}
+			work += durations[t];
+		}
+		this.work = work;
+		this.recordedMakespan = recordedMakespan;
+
+		//bottom levels in reverse topological order
+		int[] order = this.topologicalOrder();
+		this.bottomLevels = new long[this.size];
+		long span = 0;
+		for(int i = order.length - 1; i >= 0; i--) {
+			int t = order[i];
+			long level = durations[t];
+			for(int e = 0; e < this.successors[t].length; e++) {
+				long start = this.releaseOffset(t, e);
+				level = Math.max(level, start + this.bottomLevels[this.successors[t][e]]);
+			}
+			this.bottomLevels[t] = level;
+			span = Math.max(span, level);
+		}
+		this.span = span;
+	}
+
+	private int[] topologicalOrder() {
+		int[] remaining = this.predecessors.clone();
+		int[] order = new int[this.size];
+		int head = 0;
+		int tail = 0;
+		for(int t = 0; t < this.size; t++) {
+			if(remaining[t] == 0)
+				order[tail++] = t;
+		}
+		while(head < tail) {
+			int t = order[head++];
+			for(int succ : this.successors[t]) {
+				if(--remaining[succ] == 0)
+					order[tail++] = succ;
+			}
+		}
+		if(tail != this.size)
+			throw new IllegalStateException("the trace contains a cycle");
+		return order;
+	}
+
+	/**
+	 * builds the graph of the tasks recorded in trace
+	 * @param trace
+	 * @return
+	 */
+	public static TaskGraph of(TraceFile trace) {
+		//pass 1: tasks that started and retired
+		HashMap<Integer, long[]> times = new HashMap<Integer, long[]>(); //id -> start, end
+		HashMap<Integer, Integer> methodOf = new HashMap<Integer, Integer>();
+		long first = Long.MAX_VALUE;
+		long last = Long.MIN_VALUE;
+		for(TraceFile.ThreadTrace thread : trace.threads()) {
+			for(TraceFile.Event e : thread.events) {
+				if(e.type == TraceRecorder.START) {
+					times.put(e.task, new long[] { e.nanos, -1 });
+					methodOf.put(e.task, e.method);
+				} else if(e.type == TraceRecorder.RETIRE) {
+					long[] t = times.get(e.task);
+					if(t != null)
+						t[1] = e.nanos;
+				}
+			}
+		}
+		//number the tasks in the order they started
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		for(Map.Entry<Integer, long[]> e : times.entrySet()) {
+			if(e.getValue()[1] >= 0)
+				ids.add(e.getKey());
+		}
+		final HashMap<Integer, long[]> started = times;
+		Collections.sort(ids, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				long sa = started.get(a)[0];
+				long sb = started.get(b)[0];
+				return sa < sb ? -1 : (sa == sb ? 0 : 1);
+			}
+		});
+		HashMap<Integer, Integer> index = new HashMap<Integer, Integer>();
+		ArrayList<String> methods = new ArrayList<String>();
+		ArrayList<Long> durations = new ArrayList<Long>();
+		ArrayList<long[]> startEnd = new ArrayList<long[]>();
+		for(Integer id : ids) {
+			long[] t = times.get(id);
+			index.put(id, methods.size());
+			methods.add(trace.methodName(methodOf.get(id)));
+			durations.add(t[1] - t[0]);
+			startEnd.add(t);
+			first = Math.min(first, t[0]);
+			last = Math.max(last, t[1]);
+		}
+
+		//pass 2: edges
+		int size = methods.size();
+		List<List<int[]>> edges = new ArrayList<List<int[]>>(size);
+		List<List<Long>> offsets = new ArrayList<List<Long>>(size);
+		for(int t = 0; t < size; t++) {
+			edges.add(new ArrayList<int[]>(2));
+			offsets.add(new ArrayList<Long>(2));
+		}
+		//edges that a still executing predecessor released early, with the time of the release.
+		//traces of version 1 have no RELEASE events; there we only see the early releases that made a task ready
+		HashMap<Long, Long> earlyReleases = new HashMap<Long, Long>();
+		for(TraceFile.ThreadTrace thread : trace.threads()) {
+			for(TraceFile.Event e : thread.events) {
+				if(e.type != TraceRecorder.RELEASE && e.type != TraceRecorder.READY)
+					continue;
+				Integer from = index.get(e.other);
+				if(from != null && e.nanos < startEnd.get(from)[1])
+					earlyReleases.put(edgeKey(e.other, e.task), e.nanos - startEnd.get(from)[0]);
+			}
+		}
+		for(TraceFile.ThreadTrace thread : trace.threads()) {
+			for(TraceFile.Event e : thread.events) {
+				int pred;
+				int succ;
+				if(e.type == TraceRecorder.SCHEDULE) {
+					pred = e.other;
+					succ = e.task;
+				} else if(e.type == TraceRecorder.HB) {
+					pred = e.task;
+					succ = e.other;
+				} else {
+					continue;
+				}
+				Integer from = index.get(pred);
+				Integer to = index.get(succ);
+				if(from == null || to == null)
+					continue;
+				Long offset = earlyReleases.get(edgeKey(pred, succ));
+				edges.get(from).add(new int[] { to });
+				offsets.get(from).add(offset == null ? AtEnd : offset);
+			}
+		}
+
+		long[] d = new long[size];
+		for(int t = 0; t < size; t++) {
+			d[t] = durations.get(t);
+		}
+		return new TaskGraph(methods, d, edges, offsets, size == 0 ? 0 : last - first);
+	}
+
+	private static long edgeKey(int from, int to) {
+		return ((long)from << 32) | (to & 0xffffffffL);
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public String method(int task) {
+		return this.methods[task];
+	}
+
+	public long duration(int task) {
+		return this.durations[task];
+	}
+
+	public int[] successors(int task) {
+		return this.successors[task];
+	}
+
+	//nanos after the start of task at which its e-th successor edge is released
+	public long releaseOffset(int task, int e) {
+		long offset = this.offsets[task][e];
+		return offset == AtEnd ? this.durations[task] : offset;
+	}
+
+	public boolean releasesAtEnd(int task, int e) {
+		return this.offsets[task][e] == AtEnd;
+	}
+
+	public int predecessors(int task) {
+		return this.predecessors[task];
+	}
+
+	//the task's duration plus the longest path after it
+	public long bottomLevel(int task) {
+		return this.bottomLevels[task];
+	}
+
+	public long workNanos() {
+		return this.work;
+	}
+
+	public long spanNanos() {
+		return this.span;
+	}
+
+	//from the first start to the last retirement in the trace
+	public long recordedMakespanNanos() {
+		return this.recordedMakespan;
+	}
+}
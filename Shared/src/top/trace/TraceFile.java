@@ -0,0 +1,135 @@
+package top.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A trace dumped by TraceRecorder.dump(): the events of every thread in the order the thread recorded them.
+ * @author angererc
+ *
+ */
+public final class TraceFile {
+
+	public static final class Event {
+		public final int type;
+		public final long nanos;
+		public final int task;
+		public final int other;
+		public final int method;
+
+		Event(int type, long nanos, int task, int other, int method) {
+			this.type = type;
+			this.nanos = nanos;
+			this.task = task;
+			this.other = other;
+			this.method = method;
+		}
+
+		@Override
+		public String toString() {
+			return "Event(" + this.type + ", " + this.nanos + ", " + this.task + ", " + this.other + ", " + this.method + ")";
+		}
+	}
+
+	public static final class ThreadTrace {
+		public final String name;
+		//pool index of the worker or -1
+		public final int worker;
+		public final List<Event> events;
+
+		ThreadTrace(String name, int worker, List<Event> events) {
+			this.name = name;
+			this.worker = worker;
+			this.events = Collections.unmodifiableList(events);
+		}
+	}
+
+	private final List<String> methods;
+	private final List<ThreadTrace> threads;
+
+	private TraceFile(List<String> methods, List<ThreadTrace> threads) {
+		this.methods = Collections.unmodifiableList(methods);
+		this.threads = Collections.unmodifiableList(threads);
+	}
+
+	public static TraceFile read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	public static TraceFile read(InputStream is) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+		if(in.readLong() != TraceRecorder.Magic)
+			throw new IOException("not a TOP trace");
+		int version = in.readInt();
+		if(version < 1 || version > TraceRecorder.Version)
+			throw new IOException("unsupported trace version " + version);
+
+		int numMethods = in.readInt();
+		ArrayList<String> methods = new ArrayList<String>(numMethods);
+		for(int i = 0; i < numMethods; i++) {
+			methods.add(in.readUTF());
+		}
+
+		int numThreads = in.readInt();
+		ArrayList<ThreadTrace> threads = new ArrayList<ThreadTrace>(numThreads);
+		for(int t = 0; t < numThreads; t++) {
+			String name = in.readUTF();
+			int worker = in.readInt();
+			int numEvents = in.readInt();
+			ArrayList<Event> events = new ArrayList<Event>(numEvents);
+			long nanos = 0;
+			for(int i = 0; i < numEvents; i++) {
+				int type = in.readUnsignedByte();
+				nanos = i == 0 ? in.readLong() : nanos + readVar(in);
+				int task = (int)readVar(in);
+				int other = (int)readVar(in);
+				int method = (int)readVar(in);
+				events.add(new Event(type, nanos, task, other, method));
+			}
+			threads.add(new ThreadTrace(name, worker, events));
+		}
+		return new TraceFile(methods, threads);
+	}
+
+	private static long readVar(DataInputStream in) throws IOException {
+		long x = 0;
+		int shift = 0;
+		while(true) {
+			int b = in.readUnsignedByte();
+			x |= (long)(b & 0x7f) << shift;
+			if((b & 0x80) == 0)
+				return x;
+			shift += 7;
+		}
+	}
+
+	public List<ThreadTrace> threads() {
+		return this.threads;
+	}
+
+	public String methodName(int method) {
+		return method >= 0 && method < this.methods.size() ? this.methods.get(method) : "?";
+	}
+
+	//the earliest timestamp in the trace; 0 if there are no events
+	public long startNanos() {
+		long start = Long.MAX_VALUE;
+		for(ThreadTrace t : this.threads) {
+			if(! t.events.isEmpty())
+				start = Math.min(start, t.events.get(0).nanos);
+		}
+		return start == Long.MAX_VALUE ? 0 : start;
+	}
+}
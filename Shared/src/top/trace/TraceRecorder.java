@@ -0,0 +1,275 @@
+package top.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import jsr166y.ForkJoinWorkerThread;
+import top.Task;
+import top.utils.StripedCounter;
+
+/**
+ * Records the life cycle of tasks (schedule, ready, start, retire, hb edges and early releases) into per-worker ring buffers.
+ *
+ * TraceRecorder.start();
+ * ... //run main tasks
+ * TraceRecorder.stop();
+ * TraceRecorder.dump(new File("run.toptrace"));
+ *
+ * Recording an event is a thread local lookup and three array stores, so unlike Task.DEBUG the recorder doesn't
+ * change the timing much. When a buffer is full the oldest events of that worker are overwritten.
+ * Threads that are not fork join workers (main threads, the timer, @Blocking tasks that may get a new virtual thread each)
+ * share a few buffers that they lock; otherwise every blocking task would allocate and pin a buffer of its own.
+ * Events of different buffers are ordered by their System.nanoTime() timestamps only.
+ * Read dumps with TraceFile; ChromeTrace converts them to the JSON format of chrome://tracing and Perfetto.
+ * @author angererc
+ *
+ */
+public final class TraceRecorder {
+
+	//event types
+	public static final int SCHEDULE = 1; //task was scheduled by other (0 for main tasks)
+	public static final int READY = 2; //task's retain count dropped to 0; other released it
+	public static final int START = 3; //task started to execute
+	public static final int RETIRE = 4; //task body returned; its successors are released next
+	public static final int HB = 5; //the edge task->other was added
+	public static final int RELEASE = 6; //other released its edge to task early, while it was still executing
+
+	//ring buffer size of new buffers in events; must be a power of 2
+	public static int EVENTS_PER_THREAD = 1 << 16;
+	//number of buffers that threads that are not fork join workers share; read by start()
+	public static int SHARED_BUFFERS = 4;
+
+	static final long Magic = 0x544f505452414345L; //"TOPTRACE"
+	static final int Version = 2; //1 has no RELEASE events
+
+	//every start() begins a new generation; threads drop buffers of old generations
+	private static volatile int Generation = 0;
+	private static final ConcurrentLinkedQueue<Buffer> Buffers = new ConcurrentLinkedQueue<Buffer>();
+	private static final ThreadLocal<Buffer> Local = new ThreadLocal<Buffer>();
+	//the buffers of the other threads, created when they record their first event; replaced by start()
+	private static volatile AtomicReferenceArray<Buffer> Shared = new AtomicReferenceArray<Buffer>(SHARED_BUFFERS);
+
+	//task methods get small ids; names are written into the dump
+	//ids are kept per declaring class so that recording doesn't keep task classes alive
+	private static final ClassValue<ConcurrentHashMap<Method, Integer>> MethodIds = new ClassValue<ConcurrentHashMap<Method, Integer>>() {
+		@Override
+		protected ConcurrentHashMap<Method, Integer> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<Method, Integer>();
+		}
+	};
+	private static final ArrayList<String> MethodNames = new ArrayList<String>();
+
+	//threads take task ids in blocks so that they don't all hit the same counter
+	private static final int IdBlock = 1024;
+	private static final AtomicInteger NextIdBlock = new AtomicInteger();
+
+	private TraceRecorder() {
+	}
+
+	private static final class Buffer {
+		final int generation;
+		final String thread;
+		//pool index of the worker or -1 if this is not a fork join worker
+		final int worker;
+		//shared by threads that are not workers; they record under the lock of the buffer
+		final boolean shared;
+		//three longs per event: nanos, type << 32 | method, task << 32 | other
+		final long[] events;
+		final int mask;
+		long count;
+		int nextId;
+		int idsLeft;
+
+		Buffer(int generation, String thread, int worker, boolean shared, int capacity) {
+			this.generation = generation;
+			this.thread = thread;
+			this.worker = worker;
+			this.shared = shared;
+			int size = StripedCounter.powerOfTwo(capacity);
+			this.events = new long[3 * size];
+			this.mask = size - 1;
+		}
+	}
+
+	/**
+	 * drops the events recorded so far and turns recording on (Task.TRACE)
+	 */
+	public static synchronized void start() {
+		Generation++;
+		Buffers.clear();
+		Shared = new AtomicReferenceArray<Buffer>(SHARED_BUFFERS);
+		Task.TRACE = true;
+	}
+
+	public static synchronized void stop() {
+		Task.TRACE = false;
+	}
+
+	private static Buffer buffer() {
+		Thread t = Thread.currentThread();
+		if(! (t instanceof ForkJoinWorkerThread))
+			return sharedBuffer(t);
+		Buffer b = Local.get();
+		if(b == null || b.generation != Generation) {
+			b = new Buffer(Generation, t.getName(), StripedCounter.threadIndex() - 1, false, EVENTS_PER_THREAD);
+			Local.set(b);
+			Buffers.add(b);
+		}
+		return b;
+	}
+
+	private static Buffer sharedBuffer(Thread t) {
+		AtomicReferenceArray<Buffer> shared = Shared;
+		int i = (int)(t.getId() % shared.length());
+		Buffer b = shared.get(i);
+		if(b == null) {
+			b = new Buffer(Generation, "other threads " + i, -1, true, EVENTS_PER_THREAD);
+			if(shared.compareAndSet(i, null, b))
+				Buffers.add(b);
+			else
+				b = shared.get(i);
+		}
+		return b;
+	}
+
+	/**
+	 * records an event of the current thread; called by the runtime if Task.TRACE is on
+	 * @param type
+	 * @param task
+	 * @param other
+	 * @param method
+	 */
+	public static void record(int type, int task, int other, int method) {
+		Buffer b = buffer();
+		if(b.shared) {
+			//we take the time inside the lock so that the events of a buffer stay ordered
+			synchronized(b) {
+				add(b, type, task, other, method);
+			}
+		} else {
+			add(b, type, task, other, method);
+		}
+	}
+
+	private static void add(Buffer b, int type, int task, int other, int method) {
+		int i = (int)(b.count & b.mask) * 3;
+		long[] events = b.events;
+		events[i] = System.nanoTime();
+		events[i + 1] = ((long)type << 32) | (method & 0xffffffffL);
+		events[i + 2] = ((long)task << 32) | (other & 0xffffffffL);
+		b.count++;
+	}
+
+	//a new task id; ids start at 1, 0 means no task
+	public static int nextTaskId() {
+		Buffer b = buffer();
+		if(b.shared) {
+			synchronized(b) {
+				return nextId(b);
+			}
+		}
+		return nextId(b);
+	}
+
+	private static int nextId(Buffer b) {
+		if(b.idsLeft == 0) {
+			b.nextId = NextIdBlock.getAndIncrement() * IdBlock + 1;
+			b.idsLeft = IdBlock;
+		}
+		b.idsLeft--;
+		return b.nextId++;
+	}
+
+	//the id of a task method; cheap enough to call once per invoker
+	public static int methodId(Method m) {
+		ConcurrentHashMap<Method, Integer> ids = MethodIds.get(m.getDeclaringClass());
+		Integer id = ids.get(m);
+		if(id == null) {
+			synchronized(MethodNames) {
+				id = ids.get(m);
+				if(id == null) {
+					id = MethodNames.size();
+					MethodNames.add(m.getDeclaringClass().getName() + "." + m.getName());
+					ids.put(m, id);
+				}
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * writes the recorded events to file; call it after stop() and after the traced main tasks are done
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void dump(File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			dump(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/*
+	 * format: magic, version, method names, then per thread its name, worker index and events.
+	 * Events are a type byte followed by the nanos since the previous event of the thread, the task, other
+	 * and the method as var ints; most events fit in 6-8 bytes
+	 */
+	public static synchronized void dump(OutputStream os) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+		out.writeLong(Magic);
+		out.writeInt(Version);
+		synchronized(MethodNames) {
+			out.writeInt(MethodNames.size());
+			for(String name : MethodNames) {
+				out.writeUTF(name);
+			}
+		}
+		ArrayList<Buffer> buffers = new ArrayList<Buffer>(Buffers);
+		out.writeInt(buffers.size());
+		for(Buffer b : buffers) {
+			int size = b.mask + 1;
+			long count = b.count;
+			long first = Math.max(0, count - size);
+			out.writeUTF(b.thread);
+			out.writeInt(b.worker);
+			out.writeInt((int)(count - first));
+			long last = 0;
+			for(long n = first; n < count; n++) {
+				int i = (int)(n & b.mask) * 3;
+				long nanos = b.events[i];
+				out.writeByte((int)(b.events[i + 1] >>> 32));
+				if(n == first) {
+					out.writeLong(nanos);
+				} else {
+					writeVar(out, nanos - last);
+				}
+				last = nanos;
+				writeVar(out, b.events[i + 2] >>> 32);
+				writeVar(out, b.events[i + 2] & 0xffffffffL);
+				writeVar(out, b.events[i + 1] & 0xffffffffL);
+			}
+		}
+		out.flush();
+	}
+
+	//7 bits per byte, high bit set if more bytes follow; x must not be negative
+	private static void writeVar(DataOutputStream out, long x) throws IOException {
+		while((x & ~0x7fL) != 0) {
+			out.writeByte((int)(x & 0x7f) | 0x80);
+			x >>>= 7;
+		}
+		out.writeByte((int)x);
+	}
+}
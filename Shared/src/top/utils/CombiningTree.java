@@ -0,0 +1,91 @@
+package top.utils;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A counter that only tells whether it is zero, but scales to many threads (a simplified scalable non-zero indicator).
+ *
+ * The counter is a binary tree of counts. An arrival increments a leaf; only if the leaf goes from 0 to 1 does it
+ * also arrive at the parent, and so on up to the root. A departure decrements the leaf it arrived at and
+ * only departs from the parent if the leaf drops to 0. The root is non-zero iff there are more arrivals than
+ * departures, but as long as a leaf stays positive its threads never touch the nodes above it.
+ *
+ * The tree relies on two rules of its users:
+ * 1) every departure uses the leaf that its arrival returned and happens after the arrival returned
+ * 2) an arrival is only made by somebody who has arrived and not departed yet (except for the very first arrival)
+ * Together they guarantee that the root never drops to zero while some arrival is still outstanding,
+ * even if inner nodes see the increments and decrements of different threads in a different order.
+ * The task counters in ScheduleDomain and the arrivals at barriers follow these rules.
+ * @author angererc
+ *
+ */
+public final class CombiningTree {
+
+	//ints per node if padded so that two nodes never share a cache line
+	private static final int Padding = 32;
+
+	//heap layout: root at 1, children of n at 2n and 2n+1, leaves at [leaves, 2*leaves)
+	private final AtomicIntegerArray nodes;
+	private final int leaves;
+	private final int stride;
+
+	/**
+	 * @param leaves number of leaves; rounded up to a power of two
+	 * @param padded put every node on its own cache line; use this for trees that are hammered by many threads
+	 */
+	public CombiningTree(int leaves, boolean padded) {
+		this.leaves = StripedCounter.powerOfTwo(leaves);
+		this.stride = padded ? Padding : 1;
+		this.nodes = new AtomicIntegerArray(2 * this.leaves * this.stride);
+	}
+
+	public int leaves() {
+		return this.leaves;
+	}
+
+	/**
+	 * arrives at the leaf of the current thread's stripe
+	 * @return the leaf to use when departing
+	 */
+	public int arrive() {
+		int leaf = StripedCounter.threadIndex() & (this.leaves - 1);
+		this.arrive(leaf);
+		return leaf;
+	}
+
+	public void arrive(int leaf) {
+		int node = this.leaves + leaf;
+		while(node >= 1) {
+			if(this.nodes.getAndIncrement(node * this.stride) != 0)
+				return;
+			node >>= 1;
+		}
+	}
+
+	/**
+	 * departs from leaf
+	 * @param leaf
+	 * @return true if this departure brought the whole tree to zero
+	 */
+	public boolean depart(int leaf) {
+		int node = this.leaves + leaf;
+		while(true) {
+			int count = this.nodes.decrementAndGet(node * this.stride);
+			assert count >= 0 : "more departures than arrivals";
+			if(count != 0)
+				return false;
+			if(node == 1)
+				return true;
+			node >>= 1;
+		}
+	}
+
+	public boolean isZero() {
+		return this.nodes.get(this.stride) == 0;
+	}
+
+	@Override
+	public String toString() {
+		return "CombiningTree(leaves=" + this.leaves + ", root=" + this.nodes.get(this.stride) + ")";
+	}
+}
@@ -0,0 +1,84 @@
+package top.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import jsr166y.ForkJoinWorkerThread;
+
+/**
+ * A counter that is cheap to update from many threads at the same time.
+ * Each thread adds to the cell of its stripe (worker threads use their pool index, all other threads share stripe 0)
+ * and every cell sits on its own cache line. sum() adds up the cells and is therefore only a snapshot
+ * if nobody updates the counter at the same time.
+ * @author angererc
+ *
+ */
+public final class StripedCounter {
+
+	//longs per cell so that two cells never share a cache line
+	private static final int Padding = 16;
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	public StripedCounter() {
+		this(java.lang.Runtime.getRuntime().availableProcessors() + 1);
+	}
+
+	public StripedCounter(int stripes) {
+		int n = powerOfTwo(stripes);
+		this.cells = new AtomicLongArray(n * Padding);
+		this.mask = n - 1;
+	}
+
+	/**
+	 * returns the smallest power of two >= n
+	 */
+	public static int powerOfTwo(int n) {
+		int p = 1;
+		while(p < n)
+			p <<= 1;
+		return p;
+	}
+
+	/**
+	 * the stripe of the current thread: pool index + 1 for fork join workers, 0 for all other threads
+	 */
+	public static int threadIndex() {
+		Thread t = Thread.currentThread();
+		if(t instanceof ForkJoinWorkerThread)
+			return ((ForkJoinWorkerThread)t).getPoolIndex() + 1;
+		return 0;
+	}
+
+	public void increment() {
+		this.add(1);
+	}
+
+	public void add(long x) {
+		this.cells.getAndAdd((threadIndex() & this.mask) * Padding, x);
+	}
+
+	//adds x to the current thread's cell and returns the new value of that cell (not the sum!)
+	public long addAndGet(long x) {
+		return this.cells.addAndGet((threadIndex() & this.mask) * Padding, x);
+	}
+
+	public long sum() {
+		long sum = 0;
+		for(int i = 0; i <= this.mask; i++) {
+			sum += this.cells.get(i * Padding);
+		}
+		return sum;
+	}
+
+	public void reset() {
+		for(int i = 0; i <= this.mask; i++) {
+			this.cells.set(i * Padding, 0);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(this.sum());
+	}
+}
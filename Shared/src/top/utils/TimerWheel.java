@@ -0,0 +1,153 @@
+package top.utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel (Varghese and Lauck): one thread that runs actions after a delay.
+ *
+ * The wheel is an array of buckets; every tick the timer thread moves to the next bucket and runs the timeouts in it
+ * whose deadline has passed. A timeout that is further away than one turn of the wheel waits in its bucket
+ * for the remaining number of turns. Scheduling a timeout only appends it to a lock-free queue,
+ * so thousands of timeouts per second don't cost more than one sleeping thread. Timeouts fire up to one tick late.
+ * If there are no timeouts the timer thread doesn't tick but parks until the next schedule().
+ * The actions run in the timer thread and should be short.
+ * @author angererc
+ *
+ */
+public final class TimerWheel {
+
+	private static final class Timeout {
+		final long deadline;
+		final Runnable action;
+		long rounds;
+		Timeout(long deadline, Runnable action) {
+			this.deadline = deadline;
+			this.action = action;
+		}
+	}
+
+	//so that we can make an array of buckets without raw types
+	private static final class Bucket extends ArrayList<Timeout> {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	//new timeouts; the timer thread puts them into their buckets
+	private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+	private final Thread thread;
+	private final long startNanos;
+	private volatile boolean stopped;
+	private volatile boolean idle;
+	//only accessed by the timer thread
+	private long tick;
+	private int size;
+
+	public TimerWheel(String name) {
+		this(name, 1, TimeUnit.MILLISECONDS, 512);
+	}
+
+	public TimerWheel(String name, long tickDuration, TimeUnit unit, int buckets) {
+		this.tickNanos = Math.max(1, unit.toNanos(tickDuration));
+		int size = StripedCounter.powerOfTwo(buckets);
+		this.wheel = new Bucket[size];
+		for(int i = 0; i < size; i++) {
+			this.wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+		this.startNanos = System.nanoTime();
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				TimerWheel.this.run();
+			}
+		}, name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * runs action in the timer thread once delay has passed
+	 */
+	public void schedule(long delay, TimeUnit unit, Runnable action) {
+		if(this.stopped)
+			throw new IllegalStateException("timer wheel is stopped");
+		this.added.add(new Timeout(System.nanoTime() + unit.toNanos(delay), action));
+		if(this.idle)
+			LockSupport.unpark(this.thread);
+	}
+
+	/**
+	 * stops the timer thread; timeouts that didn't fire yet are dropped
+	 */
+	public void stop() {
+		this.stopped = true;
+		LockSupport.unpark(this.thread);
+	}
+
+	private void run() {
+		while(! this.stopped) {
+			if(this.size == 0 && this.added.isEmpty()) {
+				//nothing to do; park until somebody schedules a timeout. schedule() checks idle after adding
+				this.idle = true;
+				if(this.added.isEmpty() && ! this.stopped)
+					LockSupport.park(this);
+				this.idle = false;
+				//skip the ticks we slept through; the wheel is empty
+				this.tick = Math.max(this.tick, (System.nanoTime() - this.startNanos) / this.tickNanos);
+				continue;
+			}
+			
+			long next = this.startNanos + (this.tick + 1) * this.tickNanos;
+			long now;
+			while((now = System.nanoTime()) < next && ! this.stopped) {
+				LockSupport.parkNanos(this, next - now);
+			}
+			if(this.stopped)
+				return;
+
+			this.transferAdded();
+			ArrayList<Timeout> bucket = this.wheel[(int)(this.tick & this.mask)];
+			this.tick++;
+			this.expire(bucket);
+		}
+	}
+
+	//puts new timeouts into the bucket of their deadline; the current tick has not been processed yet
+	private void transferAdded() {
+		Timeout timeout;
+		while((timeout = this.added.poll()) != null) {
+			long ticks = (timeout.deadline - this.startNanos + this.tickNanos - 1) / this.tickNanos;
+			//deadline already passed: fire at the current tick
+			long target = Math.max(ticks - 1, this.tick);
+			timeout.rounds = (target - this.tick) / this.wheel.length;
+			this.wheel[(int)(target & this.mask)].add(timeout);
+			this.size++;
+		}
+	}
+
+	private void expire(ArrayList<Timeout> bucket) {
+		int kept = 0;
+		for(int i = 0; i < bucket.size(); i++) {
+			Timeout timeout = bucket.get(i);
+			if(timeout.rounds > 0) {
+				timeout.rounds--;
+				bucket.set(kept++, timeout);
+			} else {
+				this.size--;
+				try {
+					timeout.action.run();
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		for(int i = bucket.size() - 1; i >= kept; i--) {
+			bucket.remove(i);
+		}
+	}
+}